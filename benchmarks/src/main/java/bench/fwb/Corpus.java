@@ -0,0 +1,120 @@
+package bench.fwb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+
+/**
+ * synthetic trees of files, each stressing a different path through the zip and directory utilities.
+ * generation is deterministic (seeded), so runs are comparable.
+ */
+public enum Corpus {
+	/** many tiny text files: per-entry overhead dominates */
+	TINY {
+		@Override
+		void generate(File dir, Random r) throws IOException {
+			for (int i = 0; i < 10000; ++i)
+				write(new File(dir, "d" + (i / 100) + "/f" + i + ".txt"), text(r, 50 + r.nextInt(200)));
+		}
+	},
+	/** a few huge, compressible files: deflate throughput dominates */
+	HUGE {
+		@Override
+		void generate(File dir, Random r) throws IOException {
+			byte[] block = text(r, 1 << 20);
+			for (int i = 0; i < 4; ++i) {
+				File f = new File(dir, "huge" + i + ".log");
+				f.getParentFile().mkdirs();
+				OutputStream os = new FileOutputStream(f); try {
+					for (int j = 0; j < 64; ++j) {
+						block[r.nextInt(block.length)] = (byte) ('a' + r.nextInt(26));
+						os.write(block);
+					}
+				} finally {
+					os.close();
+				}
+			}
+		}
+	},
+	/** already-compressed media: incompressible, i.e. deflate is wasted effort */
+	MEDIA {
+		@Override
+		void generate(File dir, Random r) throws IOException {
+			for (int i = 0; i < 64; ++i) {
+				byte[] b = new byte[1 << 20];
+				r.nextBytes(b);
+				write(new File(dir, "media/img" + i + ".jpg"), b);
+			}
+		}
+	},
+	/** a deep, bushy tree of small files: directory traversal dominates */
+	DEEP {
+		@Override
+		void generate(File dir, Random r) throws IOException {
+			for (int branch = 0; branch < 16; ++branch) {
+				File d = new File(dir, "b" + branch);
+				for (int depth = 0; depth < 32; ++depth) {
+					d = new File(d, "l" + depth);
+					write(new File(d, "f.txt"), text(r, 1024));
+				}
+			}
+		}
+	};
+	
+	static final long SEED = 0;
+	static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "zip", "file", "directory", "temp", "buffer"};
+	
+	abstract void generate(File dir, Random r) throws IOException;
+	
+	/** generates this corpus into the given (new) directory */
+	public Size create(File dir) throws IOException {
+		generate(dir, new Random(SEED));
+		return Size.of(dir);
+	}
+	
+	static byte[] text(Random r, int length) {
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length)
+			sb.append(WORDS[r.nextInt(WORDS.length)]).append(r.nextInt(8) == 0 ? '\n' : ' ');
+		sb.setLength(length);
+		return sb.toString().getBytes(Charsets.US_ASCII);
+	}
+	static void write(File f, byte[] content) throws IOException {
+		f.getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(f); try {
+			os.write(content);
+		} finally {
+			os.close();
+		}
+	}
+	
+	/** the number of leaves in a tree, and their total bytes */
+	public static class Size {
+		public final long LEAVES, BYTES;
+		Size(long leaves, long bytes) {
+			LEAVES = leaves;
+			BYTES = bytes;
+		}
+		
+		public static Size of(File f) {
+			if (! f.isDirectory())
+				return new Size(1, f.length());
+			long leaves = 0, bytes = 0;
+			for (File child : f.listFiles()) {
+				Size s = of(child);
+				leaves += s.LEAVES;
+				bytes += s.BYTES;
+			}
+			return new Size(leaves, bytes);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s leaves, %s bytes", LEAVES, BYTES);
+		}
+	}
+}
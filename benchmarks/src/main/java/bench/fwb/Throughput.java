@@ -0,0 +1,32 @@
+package bench.fwb;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * secondary results: JMH reports each public field as a rate, i.e. MB/s and entries/s,
+ * alongside the primary (operations) score.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Throughput {
+	public double megabytes;
+	public long entries;
+	
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0;
+		entries = 0;
+	}
+	
+	public void add(Corpus.Size size) {
+		add(size.BYTES, size.LEAVES);
+	}
+	public void add(long bytes, long entries) {
+		megabytes += bytes / 1e6;
+		this.entries += entries;
+	}
+}
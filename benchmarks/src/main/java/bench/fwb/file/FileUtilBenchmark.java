@@ -0,0 +1,72 @@
+package bench.fwb.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.fwb.file.FileUtil;
+import org.fwb.file.dir.TempDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.fwb.Throughput;
+
+import com.google.common.io.Files;
+
+/**
+ * {@link FileUtil#save(InputStream, File)} throughput, file to file, per file size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileUtilBenchmark {
+	/** in bytes */
+	@Param({"4096", "1048576", "67108864"})
+	public int length;
+	
+	TempDirectory td;
+	File source, target;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		td = new TempDirectory("FileUtilBenchmark");
+		byte[] b = new byte[length];
+		new Random(0).nextBytes(b);
+		source = new File(td, "source");
+		Files.write(b, source);
+		target = new File(td, "target");
+	}
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		td.close();
+	}
+	
+	@Benchmark
+	public long save(Throughput t) throws IOException {
+		long retVal;
+		InputStream is = new FileInputStream(source); try {
+			retVal = FileUtil.save(is, target);
+		} finally {
+			is.close();
+		}
+		t.add(retVal, 1);
+		return retVal;
+	}
+}
@@ -0,0 +1,65 @@
+package bench.fwb.file.dir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fwb.file.dir.DirectoryUtility;
+import org.fwb.file.dir.TempDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.fwb.Corpus;
+import bench.fwb.Throughput;
+
+/**
+ * {@link DirectoryUtility#deleteDirectory} of a whole tree, per corpus.
+ * a tree can only be deleted once, so each (single-shot) iteration generates a fresh one, untimed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeleteBenchmark {
+	/** HUGE is omitted: its few files delete in no time, and take long to generate */
+	@Param({"TINY", "MEDIA", "DEEP"})
+	public Corpus corpus;
+	
+	TempDirectory td;
+	File victim;
+	Corpus.Size size;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		td = new TempDirectory("DeleteBenchmark");
+	}
+	@Setup(Level.Iteration)
+	public void generate() throws IOException {
+		victim = new File(td, "victim");
+		size = corpus.create(victim);
+	}
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		td.close();
+	}
+	
+	@Benchmark
+	public boolean deleteDirectory(Throughput t) {
+		boolean retVal = DirectoryUtility.deleteDirectory(victim);
+		t.add(size);
+		return retVal;
+	}
+}
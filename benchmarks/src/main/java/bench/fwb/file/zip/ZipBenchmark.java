@@ -0,0 +1,106 @@
+package bench.fwb.file.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.fwb.file.dir.TempDirectory;
+import org.fwb.file.zip.ZipDirectory;
+import org.fwb.file.zip.ZipUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.fwb.Corpus;
+import bench.fwb.Throughput;
+
+import com.google.common.io.Files;
+
+/**
+ * zip and unzip throughput, per corpus.
+ * each unzip extracts over the same target directory, i.e. over-writes its previous run's files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipBenchmark {
+	@Param
+	public Corpus corpus;
+	
+	TempDirectory td;
+	File src, zip, roundTrip;
+	Corpus.Size size;
+	ExecutorService executor;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		td = new TempDirectory("ZipBenchmark");
+		src = new File(td, "src");
+		size = corpus.create(src);
+		zip = new File(td, "corpus.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		roundTrip = new File(td, "roundTrip.zip");
+		Files.copy(zip, roundTrip);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		executor.shutdown();
+		td.close();
+	}
+	
+	@Benchmark
+	public void zip(Throughput t) throws IOException {
+		ZipUtility.zip(new File(td, "zip.zip"), src.listFiles());
+		t.add(size);
+	}
+	@Benchmark
+	public void zipParallel(Throughput t) throws IOException {
+		ZipUtility.zip(new File(td, "zipParallel.zip"), executor, src.listFiles());
+		t.add(size);
+	}
+	
+	@Benchmark
+	public void unzipFile(Throughput t) throws IOException {
+		ZipUtility.unzip(zip, new File(td, "unzipFile"));
+		t.add(size);
+	}
+	@Benchmark
+	public void unzipStream(Throughput t) throws IOException {
+		InputStream is = new FileInputStream(zip); try {
+			ZipUtility.unzip(is, new File(td, "unzipStream"));
+		} finally {
+			is.close();
+		}
+		t.add(size);
+	}
+	
+	/** unzip into a new ZipDirectory, zip it back, and close (i.e. delete) it */
+	@Benchmark
+	public void zipDirectoryRoundTrip(Throughput t) throws IOException {
+		ZipDirectory zd = ZipDirectory.unzip(roundTrip, "ZipBenchmark", ".zip.tmp", td);
+		try {
+			zd.zip();
+		} finally {
+			zd.close();
+		}
+		t.add(size);
+	}
+}
@@ -0,0 +1,109 @@
+package org.fwb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * content fingerprints, as (lowercase hex) String {@link FileProperty FileProperties}.
+ * large files are hashed through memory-mapped windows, small ones through a plain read.
+ * (java 8 has no CRC-32C, so {@link #crc32} is the zip CRC.)
+ * 
+ * n.b. each application reads the whole file; for a tree, see {@link ChecksumIndex}.
+ */
+public enum Checksum implements FileProperty<String> {
+	crc32 {
+		@Override
+		Hasher hasher() {
+			final CRC32 crc = new CRC32();
+			return new Hasher() {
+				@Override
+				void update(ByteBuffer bb) {
+					crc.update(bb);
+				}
+				@Override
+				byte[] digest() {
+					long value = crc.getValue();
+					return new byte[] {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+				}
+			};
+		}
+	},
+	sha256 {
+		@Override
+		Hasher hasher() {
+			final MessageDigest md;
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("every java platform must support SHA-256", e);
+			}
+			return new Hasher() {
+				@Override
+				void update(ByteBuffer bb) {
+					md.update(bb);
+				}
+				@Override
+				byte[] digest() {
+					return md.digest();
+				}
+			};
+		}
+	};
+	
+	/** files at least this large are memory-mapped, rather than read */
+	public static final long MAP_THRESHOLD = Long.getLong("org.fwb.dir.Checksum.MAP_THRESHOLD", 1 << 20);
+	/** the most of a file mapped at once */
+	static final long MAP_WINDOW = 1 << 26;
+	static final int READ_BUFFER = 1 << 16;
+	
+	abstract Hasher hasher();
+	
+	@Override
+	public Class<?> type() {
+		return String.class;
+	}
+	
+	@Override
+	public String apply(File f) {
+		try {
+			return hash(f);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/** the checksum of the file's content, in lowercase hex */
+	public String hash(File f) throws IOException {
+		Hasher h = hasher();
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ); try {
+			long size = ch.size();
+			if (size >= MAP_THRESHOLD) {
+				for (long position = 0; position < size; position += MAP_WINDOW)
+					h.update(ch.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+			} else {
+				ByteBuffer bb = ByteBuffer.allocate(READ_BUFFER);
+				while (ch.read(bb) >= 0) {
+					bb.flip();
+					h.update(bb);
+					bb.clear();
+				}
+			}
+		} finally {
+			ch.close();
+		}
+		return HashCode.fromBytes(h.digest()).toString();
+	}
+	
+	static abstract class Hasher {
+		abstract void update(ByteBuffer bb);
+		abstract byte[] digest();
+	}
+}
@@ -0,0 +1,216 @@
+package org.fwb.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * a persistent cache of {@link Checksum Checksums}, kept in a sidecar file,
+ * keyed by path and validated by size, modification time and file key (i.e. inode, where there is one).
+ * so re-hashing a mostly unchanged tree costs a stat per file, plus the hashing of whatever changed.
+ * 
+ * lookups are thread-safe; {@link #save()} writes the sidecar afresh (atomically).
+ */
+public class ChecksumIndex {
+	static final Logger LOG = LoggerFactory.getLogger(ChecksumIndex.class);
+	
+	/** the sidecar format */
+	static final int MAGIC = 0xC4EC4501;
+	
+	public final File SIDECAR;
+	/** by algorithm and absolute path */
+	final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+	final AtomicLong
+		HITS = new AtomicLong(),
+		MISSES = new AtomicLong();
+	
+	/** loads the given sidecar, if it exists (and is readable; otherwise starts empty) */
+	public ChecksumIndex(File sidecar) {
+		SIDECAR = sidecar;
+		if (sidecar.isFile())
+			try {
+				load();
+			} catch (IOException e) {
+				LOG.warn("ignoring unreadable sidecar {}: {}", sidecar, e);
+				ENTRIES.clear();
+			}
+	}
+	
+	/** the checksum of the given file, as cached if it's unchanged, otherwise hashed (and cached) */
+	public String get(File f, Checksum checksum) throws IOException {
+		String path = f.getAbsolutePath();
+		String key = checksum.name() + ':' + path;
+		BasicFileAttributes a = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		Entry e = ENTRIES.get(key);
+		if (null != e && e.matches(a)) {
+			HITS.incrementAndGet();
+			return e.VALUE;
+		}
+		MISSES.incrementAndGet();
+		String retVal = checksum.hash(f);
+		// n.b. by the attributes from before hashing, so that a change during hashing shows next time
+		ENTRIES.put(key, new Entry(a, retVal));
+		return retVal;
+	}
+	
+	/** the checksums of the given files, each hashed (if necessary) upon the given executor */
+	public Map<File, String> get(List<File> files, final Checksum checksum, ExecutorService executor) throws IOException {
+		List<Future<String>> futures = new ArrayList<Future<String>>(files.size());
+		for (final File f : files)
+			futures.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws IOException {
+					return get(f, checksum);
+				}
+			}));
+		Map<File, String> retVal = new LinkedHashMap<File, String>();
+		for (int i = 0; i < files.size(); ++i)
+			retVal.put(files.get(i), await(futures.get(i)));
+		return retVal;
+	}
+	
+	/** a FileProperty of the given checksum, through this cache */
+	public FileProperty<String> property(final Checksum checksum) {
+		return new FileProperty<String>() {
+			@Override
+			public String name() {
+				return checksum.name();
+			}
+			@Override
+			public Class<?> type() {
+				return String.class;
+			}
+			@Override
+			public String apply(File f) {
+				try {
+					return get(f, checksum);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+	
+	public long getHits() {
+		return HITS.get();
+	}
+	public long getMisses() {
+		return MISSES.get();
+	}
+	public int size() {
+		return ENTRIES.size();
+	}
+	
+	/** drops the entries of files which no longer exist */
+	public void prune() {
+		for (String key : ENTRIES.keySet())
+			if (! new File(key.substring(key.indexOf(':') + 1)).exists())
+				ENTRIES.remove(key);
+	}
+	
+	void load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(SIDECAR))); try {
+			if (MAGIC != in.readInt())
+				throw new IOException("not a checksum sidecar: " + SIDECAR);
+			for (int i = in.readInt(); i > 0; --i) {
+				String key = in.readUTF();
+				ENTRIES.put(key, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+			}
+		} finally {
+			in.close();
+		}
+		LOG.trace("loaded {} checksums from {}", ENTRIES.size(), SIDECAR);
+	}
+	
+	/** writes the sidecar, to a temporary file moved over the old one */
+	public void save() throws IOException {
+		File tmp = new File(SIDECAR.getPath() + ".tmp");
+		Map<String, Entry> snapshot = new LinkedHashMap<String, Entry>(ENTRIES);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))); try {
+			out.writeInt(MAGIC);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().SIZE);
+				out.writeLong(e.getValue().MODIFIED);
+				out.writeUTF(e.getValue().FILE_KEY);
+				out.writeUTF(e.getValue().VALUE);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), SIDECAR.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOG.trace("saved {} checksums to {}", snapshot.size(), SIDECAR);
+	}
+	
+	static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted awaiting " + f, e);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof IOException)
+				throw (IOException) t;
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			throw new IOException(t);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("ChecksumIndex(%s: %s entries, %s hits, %s misses)", SIDECAR, ENTRIES.size(), HITS.get(), MISSES.get());
+	}
+	
+	/** a cached checksum, and the attributes of the file as hashed */
+	static class Entry {
+		final long SIZE, MODIFIED;
+		/** "" if the filesystem has no file keys */
+		final String FILE_KEY;
+		final String VALUE;
+		Entry(long size, long modified, String fileKey, String value) {
+			SIZE = size;
+			MODIFIED = modified;
+			FILE_KEY = fileKey;
+			VALUE = value;
+		}
+		Entry(BasicFileAttributes a, String value) {
+			this(a.size(), a.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKey(a), value);
+		}
+		
+		boolean matches(BasicFileAttributes a) {
+			return SIZE == a.size()
+					&& MODIFIED == a.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+					&& FILE_KEY.equals(fileKey(a));
+		}
+		
+		static String fileKey(BasicFileAttributes a) {
+			return null == a.fileKey() ? "" : a.fileKey().toString();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.fwb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fwb.file.FileProperty.FileField;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * a table of {@link FileProperty} values for a list of files, held by column:
+ * long and boolean fields in primitive arrays, everything else in Object arrays.
+ * each file is read once (as a {@link FileSnapshot}), however many {@link FileField FileFields} are asked for;
+ * other properties are applied to the File as usual.
+ */
+public class FileColumns {
+	public final List<File> FILES;
+	/** the columns, in the order asked for */
+	final Map<FileProperty<?>, Object> COLUMNS = new LinkedHashMap<FileProperty<?>, Object>();
+	
+	public FileColumns(List<File> files, FileProperty<?>... columns) throws IOException {
+		FILES = files;
+		int size = files.size();
+		for (FileProperty<?> column : columns)
+			COLUMNS.put(column,
+					Long.class == column.type() && column instanceof FileField ? new long[size]
+					: Boolean.class == column.type() && column instanceof FileField ? new boolean[size]
+					: new Object[size]);
+		
+		int i = 0;
+		for (File f : files) {
+			FileSnapshot s = new FileSnapshot(f);
+			for (Map.Entry<FileProperty<?>, Object> e : COLUMNS.entrySet()) {
+				FileProperty<?> column = e.getKey();
+				Object array = e.getValue();
+				if (array instanceof long[])
+					((long[]) array)[i] = ((FileField) column).applyAsLong(s);
+				else if (array instanceof boolean[])
+					((boolean[]) array)[i] = ((FileField) column).applyAsBoolean(s);
+				else
+					((Object[]) array)[i] = column instanceof FileField
+							? ((FileField) column).apply(s)
+							: column.apply(f);
+			}
+			++i;
+		}
+	}
+	
+	/** the number of rows, i.e. files */
+	public int size() {
+		return FILES.size();
+	}
+	
+	/** the given (long) column; n.b. the array itself, not a copy */
+	public long[] getLongs(FileProperty<?> column) {
+		return get(column, long[].class);
+	}
+	/** the given (boolean) column; n.b. the array itself, not a copy */
+	public boolean[] getBooleans(FileProperty<?> column) {
+		return get(column, boolean[].class);
+	}
+	/** the given (Object) column; n.b. the array itself, not a copy */
+	public Object[] getObjects(FileProperty<?> column) {
+		return get(column, Object[].class);
+	}
+	
+	<A> A get(FileProperty<?> column, Class<A> type) {
+		Object array = COLUMNS.get(column);
+		Preconditions.checkArgument(null != array, "no such column: %s (of %s)", column, COLUMNS.keySet());
+		Preconditions.checkArgument(type.isInstance(array),
+				"column %s is a %s, not a %s", column, array.getClass().getSimpleName(), type.getSimpleName());
+		return type.cast(array);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("FileColumns(%s rows: %s)", size(), Arrays.toString(COLUMNS.keySet().toArray()));
+	}
+}
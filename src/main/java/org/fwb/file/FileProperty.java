@@ -79,7 +79,7 @@ public interface FileProperty<T> extends Function<File, T> {
 		lastModifiedString(String.class) {
 			@Override
 			public String apply(File f) {
-				return FileUtil.seconds().format((Date) lastModifiedDate.apply(f));
+				return FileUtil.SECONDS.get().format((Date) lastModifiedDate.apply(f));
 			}
 		},
 		isDirectory(Boolean.class) {
@@ -110,6 +110,60 @@ public interface FileProperty<T> extends Function<File, T> {
 			return CLS;
 		}
 		
+		/**
+		 * this field of the given snapshot, i.e. without any further filesystem calls
+		 * (except for the canonical {@link #path}, upon first use)
+		 */
+		public Object apply(FileSnapshot s) {
+			switch (this) {
+			case path:
+				try {
+					return s.getCanonicalPath();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			case length:
+			case lastModified:
+				return applyAsLong(s);
+			case lengthString:
+				return FileUtil.getSizeString(s.LENGTH);
+			case hidden:
+			case isDirectory:
+				return applyAsBoolean(s);
+			case lastModifiedDate:
+				return new Date(s.LAST_MODIFIED);
+			case lastModifiedString:
+				return FileUtil.SECONDS.get().format(new Date(s.LAST_MODIFIED));
+			default:
+				// derived from the name alone
+				return apply(s.FILE);
+			}
+		}
+		
+		/** this (Long) field of the given snapshot, unboxed */
+		public long applyAsLong(FileSnapshot s) {
+			switch (this) {
+			case length:
+				return s.LENGTH;
+			case lastModified:
+				return s.LAST_MODIFIED;
+			default:
+				throw new IllegalArgumentException(String.format("FileField %s isn't a long (%s)", this, type()));
+			}
+		}
+		
+		/** this (Boolean) field of the given snapshot, unboxed */
+		public boolean applyAsBoolean(FileSnapshot s) {
+			switch (this) {
+			case hidden:
+				return s.HIDDEN;
+			case isDirectory:
+				return s.DIRECTORY;
+			default:
+				throw new IllegalArgumentException(String.format("FileField %s isn't a boolean (%s)", this, type()));
+			}
+		}
+		
 		public <T> FileProperty<T> cast(Class<T> type) {
 			// TODO should this be .equals instead?
 			// i take some comfort in this ensuring the same classloader, too..
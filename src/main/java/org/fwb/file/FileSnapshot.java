@@ -0,0 +1,83 @@
+package org.fwb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+
+/**
+ * the metadata of a File, as read in a single filesystem call,
+ * against which {@link FileProperty.FileField FileFields} can be evaluated
+ * (see {@link FileProperty.FileField#apply(FileSnapshot)})
+ * rather than each making calls of its own.
+ * 
+ * values follow the conventions of the corresponding File methods, e.g. zero/false for a missing file.
+ * the canonical path (needing a call of its own) is read only if asked for.
+ * 
+ * n.b. {@link #LAST_MODIFIED} is as precise as the filesystem (e.g. milliseconds),
+ * whereas {@link File#lastModified()} is whole seconds on some (java 8) runtimes;
+ * so the two agree only to the second.
+ */
+public class FileSnapshot {
+	/** whether hidden is an attribute (windows), rather than a naming convention; n.b. linux offers a "dos" view too */
+	static final boolean DOS = isDos(FileSystems.getDefault());
+	
+	public final File FILE;
+	public final boolean EXISTS, DIRECTORY, HIDDEN;
+	public final long LENGTH, LAST_MODIFIED;
+	
+	String canonicalPath = null;
+	
+	public FileSnapshot(File f) throws IOException {
+		this(f, read(f.toPath()));
+	}
+	/**
+	 * of attributes already read, e.g. by {@link Files#walkFileTree}
+	 * @param attributes null if the file doesn't exist
+	 */
+	FileSnapshot(File f, BasicFileAttributes attributes) {
+		FILE = f;
+		EXISTS = null != attributes;
+		DIRECTORY = EXISTS && attributes.isDirectory();
+		LENGTH = EXISTS ? attributes.size() : 0;
+		LAST_MODIFIED = EXISTS ? attributes.lastModifiedTime().toMillis() : 0;
+		// as File.isHidden: a dos attribute, else a unix naming convention
+		HIDDEN = DOS
+				? attributes instanceof DosFileAttributes && ((DosFileAttributes) attributes).isHidden()
+				: f.getName().startsWith(".");
+	}
+	
+	/** as {@link File#getCanonicalPath()}, but read only once */
+	public String getCanonicalPath() throws IOException {
+		if (null == canonicalPath)
+			canonicalPath = FILE.getCanonicalPath();
+		return canonicalPath;
+	}
+	
+	/** the attributes of the given path, or null if it doesn't exist */
+	static BasicFileAttributes read(Path p) throws IOException {
+		try {
+			return DOS
+					? Files.readAttributes(p, DosFileAttributes.class)
+					: Files.readAttributes(p, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+	
+	static boolean isDos(FileSystem fs) {
+		return ! fs.supportedFileAttributeViews().contains("posix")
+				&& fs.supportedFileAttributeViews().contains("dos");
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("FileSnapshot(%s: %s bytes, modified %s%s%s)",
+				FILE, LENGTH, LAST_MODIFIED, DIRECTORY ? ", directory" : "", HIDDEN ? ", hidden" : "");
+	}
+}
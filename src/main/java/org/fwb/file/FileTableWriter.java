@@ -0,0 +1,339 @@
+package org.fwb.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+
+import org.fwb.file.ByteSizeFormat.ByteSize;
+import org.fwb.file.FileProperty.FileField;
+
+import com.google.common.base.Charsets;
+
+/**
+ * writes a table of {@link FileProperty} columns, one row per file (e.g. per file in a tree),
+ * as CSV, TSV or JSON lines.
+ * 
+ * each file is read once (as a {@link FileSnapshot}),
+ * and the {@link FileField FileFields} are formatted straight into a reused buffer,
+ * i.e. without the String (nor formatter) per value of {@link FileField#lengthString} etc.,
+ * but to the same effect (in the default locale).
+ * the exceptions, formatted via {@code String.valueOf}, are {@link FileField#path},
+ * {@link FileField#lastModifiedDate} and any other (non-FileField) property.
+ * 
+ * as with any Writer, an instance is for one thread at a time.
+ */
+public class FileTableWriter implements Closeable, Flushable {
+	public enum Format {
+		/** RFC 4180 (though rows end with just a line feed) with a header */
+		CSV,
+		/** tab-separated, with tabs, newlines and backslashes escaped, with a header */
+		TSV,
+		/** a JSON object per line, without a header */
+		JSONL
+	}
+	
+	static final ByteSize[] UNITS = ByteSize.values();
+	static final char NEWLINE = '\n';
+	
+	public final Format FORMAT;
+	final Writer OUT;
+	final FileProperty<?>[] COLUMNS;
+	
+	final char[] BUFFER = new char[8192];
+	int count = 0;
+	/** a value being formatted */
+	final StringBuilder VALUE = new StringBuilder(64);
+	
+	final Calendar CALENDAR = Calendar.getInstance();
+	final char ZERO, GROUPING, DECIMAL, MINUS;
+	
+	long rows = 0;
+	
+	/** writes UTF-8 */
+	public FileTableWriter(OutputStream out, Format format, FileProperty<?>... columns) {
+		this(new OutputStreamWriter(out, Charsets.UTF_8), format, columns);
+	}
+	public FileTableWriter(Writer out, Format format, FileProperty<?>... columns) {
+		OUT = out;
+		FORMAT = format;
+		COLUMNS = columns.clone();
+		// as ByteSizeFormat (a DecimalFormat) would use
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+		ZERO = symbols.getZeroDigit();
+		GROUPING = symbols.getGroupingSeparator();
+		DECIMAL = symbols.getDecimalSeparator();
+		MINUS = symbols.getMinusSign();
+	}
+	
+	/** writes the column names (unless JSON lines, each of whose rows names its own) */
+	public void writeHeader() throws IOException {
+		if (Format.JSONL == FORMAT)
+			return;
+		for (int i = 0; i < COLUMNS.length; ++i) {
+			if (i > 0)
+				separator();
+			string(COLUMNS[i].name(), 0, COLUMNS[i].name().length());
+		}
+		append(NEWLINE);
+	}
+	
+	/** writes a row for each file in the given tree, in depth-first pre-order, including the root */
+	public long writeTree(File root) throws IOException {
+		final long before = rows;
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				write(new FileSnapshot(dir.toFile(), attrs));
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				write(new FileSnapshot(file.toFile(), attrs));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return rows - before;
+	}
+	
+	public void write(File f) throws IOException {
+		write(new FileSnapshot(f));
+	}
+	public void write(FileSnapshot s) throws IOException {
+		if (Format.JSONL == FORMAT)
+			append('{');
+		for (int i = 0; i < COLUMNS.length; ++i) {
+			if (i > 0)
+				separator();
+			if (Format.JSONL == FORMAT) {
+				string(COLUMNS[i].name(), 0, COLUMNS[i].name().length());
+				append(':');
+			}
+			value(COLUMNS[i], s);
+		}
+		if (Format.JSONL == FORMAT)
+			append('}');
+		append(NEWLINE);
+		++rows;
+	}
+	
+	/** the number of rows written (excluding the header) */
+	public long getRows() {
+		return rows;
+	}
+	
+	void value(FileProperty<?> column, FileSnapshot s) throws IOException {
+		if (! (column instanceof FileField)) {
+			object(column.apply(s.FILE));
+			return;
+		}
+		FileField field = (FileField) column;
+		String path = s.FILE.getPath();
+		int name = path.lastIndexOf(File.separatorChar) + 1;
+		int dot = path.lastIndexOf(FileUtil.DOT);
+		if (dot < name)
+			dot = -1;
+		
+		switch (field) {
+		case name:
+			string(path, name, path.length());
+			return;
+		case simpleName:
+			string(path, name, 0 > dot ? path.length() : dot);
+			return;
+		case extension:
+			if (0 > dot)
+				object(null);
+			else
+				string(path, dot + 1, path.length());
+			return;
+		case length:
+		case lastModified:
+			VALUE.setLength(0);
+			VALUE.append(field.applyAsLong(s));
+			raw(VALUE);
+			return;
+		case hidden:
+		case isDirectory:
+			raw(field.applyAsBoolean(s) ? "true" : "false");
+			return;
+		case lengthString:
+			VALUE.setLength(0);
+			size(s.LENGTH);
+			string(VALUE, 0, VALUE.length());
+			return;
+		case lastModifiedString:
+			VALUE.setLength(0);
+			seconds(s.LAST_MODIFIED);
+			string(VALUE, 0, VALUE.length());
+			return;
+		default:
+			object(field.apply(s));
+		}
+	}
+	
+	/** as {@link FileUtil#getSizeString}, into {@link #VALUE} */
+	void size(long l) {
+		// as ByteSizeFormat.magnitude
+		int unit = 0;
+		while (l >= ByteSize.FACTOR && unit < UNITS.length - 1) {
+			l /= ByteSize.FACTOR;
+			++unit;
+		}
+		// as ByteSizeFormat.DEFAULT, i.e. "#,##0.0"
+		if (l < 0) {
+			VALUE.append(MINUS);
+			l = -l;
+		}
+		int start = VALUE.length();
+		digits(l, 1);
+		for (int i = VALUE.length() - 3; i > start; i -= 3)
+			VALUE.insert(i, GROUPING);
+		VALUE.append(DECIMAL).append(ZERO).append(UNITS[unit].name());
+	}
+	
+	/** as {@link FileUtil#seconds()}, i.e. "yyyy-MM-dd_HHmm-ss", into {@link #VALUE} */
+	void seconds(long millis) {
+		CALENDAR.setTimeInMillis(millis);
+		digits(CALENDAR.get(Calendar.YEAR), 4);
+		VALUE.append('-');
+		digits(CALENDAR.get(Calendar.MONTH) + 1, 2);
+		VALUE.append('-');
+		digits(CALENDAR.get(Calendar.DAY_OF_MONTH), 2);
+		VALUE.append('_');
+		digits(CALENDAR.get(Calendar.HOUR_OF_DAY), 2);
+		digits(CALENDAR.get(Calendar.MINUTE), 2);
+		VALUE.append('-');
+		digits(CALENDAR.get(Calendar.SECOND), 2);
+	}
+	
+	/** appends a non-negative number to {@link #VALUE}, zero-padded to the given width, in locale digits */
+	void digits(long l, int width) {
+		int start = VALUE.length();
+		VALUE.append(l);
+		for (int i = start; i < VALUE.length(); ++i)
+			VALUE.setCharAt(i, (char) (ZERO + VALUE.charAt(i) - '0'));
+		while (VALUE.length() - start < width)
+			VALUE.insert(start, ZERO);
+	}
+	
+	void object(Object o) throws IOException {
+		if (null == o) {
+			if (Format.JSONL == FORMAT)
+				raw("null");
+		} else if (Format.JSONL == FORMAT && (o instanceof Number || o instanceof Boolean)) {
+			raw(o.toString());
+		} else {
+			String s = String.valueOf(o);
+			string(s, 0, s.length());
+		}
+	}
+	
+	/** appends a value needing no quotes nor escapes */
+	void raw(CharSequence cs) throws IOException {
+		for (int i = 0; i < cs.length(); ++i)
+			append(cs.charAt(i));
+	}
+	
+	/** appends a string value, quoted and escaped as this format requires */
+	void string(CharSequence cs, int from, int to) throws IOException {
+		switch (FORMAT) {
+		case CSV:
+			boolean quote = false;
+			for (int i = from; i < to && ! quote; ++i) {
+				char c = cs.charAt(i);
+				quote = ',' == c || '"' == c || '\n' == c || '\r' == c;
+			}
+			if (quote)
+				append('"');
+			for (int i = from; i < to; ++i) {
+				char c = cs.charAt(i);
+				if ('"' == c)
+					append('"');
+				append(c);
+			}
+			if (quote)
+				append('"');
+			return;
+		case TSV:
+			for (int i = from; i < to; ++i) {
+				char c = cs.charAt(i);
+				switch (c) {
+				case '\t': append('\\'); append('t'); break;
+				case '\n': append('\\'); append('n'); break;
+				case '\r': append('\\'); append('r'); break;
+				case '\\': append('\\'); append('\\'); break;
+				default: append(c);
+				}
+			}
+			return;
+		default:
+			append('"');
+			for (int i = from; i < to; ++i) {
+				char c = cs.charAt(i);
+				switch (c) {
+				case '"': append('\\'); append('"'); break;
+				case '\\': append('\\'); append('\\'); break;
+				case '\n': append('\\'); append('n'); break;
+				case '\r': append('\\'); append('r'); break;
+				case '\t': append('\\'); append('t'); break;
+				default:
+					if (c < 0x20) {
+						append('\\');
+						append('u');
+						for (int shift = 12; shift >= 0; shift -= 4)
+							append(Character.forDigit((c >> shift) & 0xF, 16));
+					} else {
+						append(c);
+					}
+				}
+			}
+			append('"');
+		}
+	}
+	
+	void separator() throws IOException {
+		append(Format.TSV == FORMAT ? '\t' : ',');
+	}
+	
+	void append(char c) throws IOException {
+		if (count == BUFFER.length)
+			drain();
+		BUFFER[count++] = c;
+	}
+	
+	void drain() throws IOException {
+		OUT.write(BUFFER, 0, count);
+		count = 0;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		drain();
+		OUT.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			OUT.close();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("FileTableWriter(%s, %s rows)", FORMAT, rows);
+	}
+}
@@ -1,22 +1,35 @@
 package org.fwb.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.fwb.io.Metrics;
+import org.fwb.io.Metrics.Operation;
 import org.fwb.io.StreamUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 
 public class FileUtil {
+	static final Logger LOG = LoggerFactory.getLogger(FileUtil.class);
+	
 	/** @deprecated static utilities only */
 	@Deprecated
 	private FileUtil() { }
@@ -63,35 +76,187 @@ public class FileUtil {
 		return new SimpleDateFormat(PATTERN_TIMESTAMP);
 	}
 	
+	/** per-thread instances, neither format being thread-safe nor cheap to create */
+	static final ThreadLocal<DateFormat> SECONDS = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return seconds();
+		}
+	};
+	static final ThreadLocal<NumberFormat> SIZE = new ThreadLocal<NumberFormat>() {
+		@Override
+		protected NumberFormat initialValue() {
+			return new ByteSizeFormat();
+		}
+	};
+	
 	public static String getSizeString(long size) {
-		NumberFormat fmt = new ByteSizeFormat();
-		return fmt.format(size);
+		return SIZE.get().format(size);
 	}
 	
 	/**
 	 * a surprising omission from the guava API,
 	 * found in neither {@link ByteStreams} nor {@link Files}.
-	 * delegates to {@link ByteStreams#copy(InputStream, OutputStream)}.
+	 * @see #copy(InputStream, File)
+	 * @see SaveBatch for many files, durably
 	 * TODO consider moving to fwb-ciao
 	 */
 	public static long save(InputStream from, File to) throws IOException {
-		OutputStream os = new FileOutputStream(to); try {
-			return ByteStreams.copy(from, os);
-		} finally {
-			os.close();
-		}
+		return copy(from, to).BYTES;
 	}
 	/**
 	 * a surprising omission from the guava API,
 	 * found in neither {@link Resources} nor {@link Files}.
-	 * delegates to {@link StreamUtil#copy(URL, OutputStream)}.
+	 * @see #copy(URL, File)
 	 * TODO move to fwb-ciao 
 	 */
 	public static long save(URL from, File to) throws IOException {
-		OutputStream os = new FileOutputStream(to); try {
-			return StreamUtil.copy(from, os);
+		return copy(from, to).BYTES;
+	}
+	
+	/** the size of the (direct, per-thread) buffer through which non-file sources are copied */
+	static final int COPY_BUFFER = Integer.getInteger("org.fwb.dir.FileUtil.COPY_BUFFER", 1 << 18);
+	static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(COPY_BUFFER);
+		}
+	};
+	
+	/**
+	 * copies a file, channel to channel,
+	 * i.e. letting the JDK use the kernel's own copy (e.g. sendfile or copy_file_range) where it can.
+	 * a file which isn't regular, or claims to be empty (e.g. in /proc, whose size is 0 whatever its content),
+	 * is read to its end instead.
+	 */
+	public static Transfer copy(File from, File to) throws IOException {
+		long start = System.nanoTime();
+		FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ); try {
+			FileChannel out = open(to); try {
+				if (java.nio.file.Files.isRegularFile(from.toPath()) && in.size() > 0)
+					return new Transfer(transfer(in, 0, in.size(), out), start);
+				return new Transfer(transfer((ReadableByteChannel) in, out), start);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * copies a stream (from its current position, to its end) into a file:
+	 * channel to channel if it's a plain {@link FileInputStream} (i.e. not a subclass, which may override read)
+	 * of a non-empty file; otherwise (e.g. a pipe, or a file in /proc) through a large direct buffer.
+	 * n.b. the stream is not closed.
+	 */
+	public static Transfer copy(InputStream from, File to) throws IOException {
+		long start = System.nanoTime();
+		FileChannel out = open(to); try {
+			// n.b. a pipe has size 0 (and can't seek), as has a /proc file (though it has content)
+			if (FileInputStream.class == from.getClass() && ((FileInputStream) from).getChannel().size() > 0) {
+				FileChannel in = ((FileInputStream) from).getChannel();
+				long position = in.position();
+				long retVal = transfer(in, position, in.size() - position, out);
+				// as if read
+				in.position(position + retVal);
+				return new Transfer(retVal, start);
+			}
+			return new Transfer(transfer(Channels.newChannel(from), out), start);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/** copies a URL's content into a file, as a file if it's a {@code file:} URL */
+	public static Transfer copy(URL from, File to) throws IOException {
+		if ("file".equals(from.getProtocol()))
+			try {
+				return copy(new File(from.toURI()), to);
+			} catch (URISyntaxException e) {
+				LOG.trace("copying {} as a stream: {}", from, e);
+			} catch (IllegalArgumentException e) {
+				LOG.trace("copying {} as a stream: {}", from, e);
+			}
+		InputStream is = from.openStream(); try {
+			return copy(is, to);
 		} finally {
-			os.close();
+			is.close();
+		}
+	}
+	
+	/**
+	 * as {@link #copy(URL, File)}, except that an HTTP URL is downloaded in {@link StreamUtil#SEGMENTS} parallel ranges
+	 * upon the given executor, where the server supports them (see {@link StreamUtil#copy(URL, File, int, ExecutorService)})
+	 */
+	public static Transfer copy(URL from, File to, ExecutorService executor) throws IOException {
+		if ("file".equals(from.getProtocol()))
+			return copy(from, to);
+		long start = System.nanoTime();
+		// n.b. measured (as a download) by StreamUtil
+		return new Transfer(StreamUtil.copy(from, to, StreamUtil.SEGMENTS, executor), start, null);
+	}
+	
+	static FileChannel open(File f) throws IOException {
+		return FileChannel.open(f.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+	
+	/** transfers the given range (or as much of it as there is) */
+	static long transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+		long retVal = 0;
+		while (retVal < count) {
+			long n = in.transferTo(position + retVal, count - retVal, out);
+			if (0 >= n && position + retVal >= in.size())
+				break; // truncated meanwhile
+			retVal += n;
+		}
+		return retVal;
+	}
+	static long transfer(ReadableByteChannel in, FileChannel out) throws IOException {
+		long retVal = 0;
+		ByteBuffer bb = BUFFER.get();
+		bb.clear();
+		for (int n; (n = in.read(bb)) >= 0; ) {
+			retVal += n;
+			if (! bb.hasRemaining()) {
+				bb.flip();
+				while (bb.hasRemaining())
+					out.write(bb);
+				bb.clear();
+			}
+		}
+		bb.flip();
+		while (bb.hasRemaining())
+			out.write(bb);
+		return retVal;
+	}
+	
+	/** the bytes of a copy, and how long it took */
+	public static class Transfer {
+		public final long BYTES, NANOS;
+		Transfer(long bytes, long startNanos) {
+			this(bytes, startNanos, Operation.COPY);
+		}
+		/** @param op as which to report this to {@link Metrics}, or null not to */
+		Transfer(long bytes, long startNanos, Operation op) {
+			BYTES = bytes;
+			NANOS = System.nanoTime() - startNanos;
+			if (null != op && Metrics.isEnabled())
+				Metrics.completed(op, 1, bytes, bytes, NANOS);
+		}
+		
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(NANOS, TimeUnit.NANOSECONDS);
+		}
+		public double getBytesPerSecond() {
+			return 0 == NANOS ? Double.POSITIVE_INFINITY : BYTES * 1e9 / NANOS;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Transfer(%s in %sms, %s/s)",
+					getSizeString(BYTES), getElapsed(TimeUnit.MILLISECONDS), getSizeString((long) Math.min(Long.MAX_VALUE, getBytesPerSecond())));
 		}
 	}
 	
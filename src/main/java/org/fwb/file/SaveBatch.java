@@ -0,0 +1,269 @@
+package org.fwb.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * saves many files, each all-or-nothing: written to a temporary sibling, then renamed (atomically) into place,
+ * so that no file is ever seen (nor, after a crash, left) partially written under its own name.
+ * how durable each file is on return depends upon the {@link Sync}.
+ * 
+ * files are renamed into place upon {@link #commit()} (or {@link #close()}),
+ * or automatically once {@link #MAX_PENDING} are pending; except with {@link Sync#FILE}, as each is saved.
+ * 
+ * an instance is for one thread at a time (though it may sync upon others).
+ */
+public class SaveBatch implements Closeable {
+	static final Logger LOG = LoggerFactory.getLogger(SaveBatch.class);
+	
+	/**
+	 * how (and when) saved files are forced to disk.
+	 * fsync is typically the cost of writing a small file, many times over:
+	 * NONE is fastest, BATCH costs about an fsync per batch (rather than per file), and FILE an fsync or two per file.
+	 */
+	public enum Sync {
+		/**
+		 * none: each file appears whole or not at all, but a crash (of the OS, not just the JVM)
+		 * may lose any files committed recently, or leave them empty
+		 */
+		NONE,
+		/**
+		 * upon commit: the pending files' data are forced together (in parallel, given an executor,
+		 * so that the filesystem can coalesce their journal commits), then renamed into place,
+		 * then each of their directories forced once. after {@link SaveBatch#commit()}, the batch is durable.
+		 */
+		BATCH,
+		/** each file is forced, renamed and its directory forced, before {@link SaveBatch#save} returns */
+		FILE
+	}
+	
+	/** the most files pending (i.e. written but not yet renamed into place) before an automatic {@link #commit()} */
+	public static final int MAX_PENDING = Integer.getInteger("org.fwb.dir.SaveBatch.MAX_PENDING", 1024);
+	static final String TMP = ".tmp";
+	
+	public final Sync SYNC;
+	/** upon which to force files' data, or null for the calling thread */
+	final ExecutorService EXECUTOR;
+	/** by target: its temporary sibling */
+	final Map<File, File> PENDING = new LinkedHashMap<File, File>();
+	long saved = 0, committed = 0, syncs = 0;
+	
+	public SaveBatch(Sync sync) {
+		this(sync, null);
+	}
+	/** @param executor upon which to force a batch's files in parallel, or null to force them in turn */
+	public SaveBatch(Sync sync, ExecutorService executor) {
+		SYNC = sync;
+		EXECUTOR = executor;
+	}
+	
+	/**
+	 * saves (the rest of) a stream as the given file, replacing any file already there (or pending there).
+	 * n.b. the stream is not closed.
+	 * @see FileUtil#save(InputStream, File)
+	 */
+	public long save(InputStream from, File to) throws IOException {
+		File tmp = File.createTempFile("." + to.getName() + ".", TMP, to.getAbsoluteFile().getParentFile());
+		long retVal;
+		try {
+			retVal = FileUtil.copy(from, tmp).BYTES;
+		} catch (IOException e) {
+			delete(tmp);
+			throw e;
+		}
+		++saved;
+		if (Sync.FILE == SYNC) {
+			try {
+				force(tmp);
+			} catch (IOException e) {
+				delete(tmp);
+				throw e;
+			}
+			move(tmp, to);
+			forceDirectory(to.getAbsoluteFile().getParentFile());
+			++committed;
+			return retVal;
+		}
+		File replaced = PENDING.put(to, tmp);
+		if (null != replaced)
+			delete(replaced);
+		if (PENDING.size() >= MAX_PENDING)
+			commit();
+		return retVal;
+	}
+	public long save(byte[] from, File to) throws IOException {
+		return save(new ByteArrayInputStream(from), to);
+	}
+	
+	/**
+	 * renames the pending files into place, forcing them first (and their directories after) as per {@link #SYNC}.
+	 * if anything fails, the rest of the batch is discarded (the files already renamed are not,
+	 * and with {@link Sync#BATCH}, their directories are still forced).
+	 * @return the number of files committed
+	 */
+	public int commit() throws IOException {
+		if (PENDING.isEmpty())
+			return 0;
+		List<Map.Entry<File, File>> batch = new ArrayList<Map.Entry<File, File>>(PENDING.entrySet());
+		Set<File> directories = new LinkedHashSet<File>();
+		try {
+			if (Sync.BATCH == SYNC)
+				force(PENDING.values());
+			for (Map.Entry<File, File> e : batch) {
+				move(e.getValue(), e.getKey());
+				PENDING.remove(e.getKey());
+				++committed;
+				directories.add(e.getKey().getAbsoluteFile().getParentFile());
+			}
+			if (Sync.BATCH == SYNC)
+				for (File dir : directories)
+					forceDirectory(dir);
+			LOG.trace("committed {} files in {} directories", batch.size(), directories.size());
+			return batch.size();
+		} finally {
+			if (! PENDING.isEmpty()) {
+				// a move failed part way: those already renamed must be durable nonetheless
+				if (Sync.BATCH == SYNC)
+					for (File dir : directories)
+						try {
+							forceDirectory(dir);
+						} catch (IOException e) {
+							LOG.warn("unable to sync directory {}: {}", dir, e);
+						}
+				abort();
+			}
+		}
+	}
+	
+	/** discards the pending files, i.e. those saved since the last commit */
+	public void abort() {
+		for (File tmp : PENDING.values())
+			delete(tmp);
+		PENDING.clear();
+	}
+	
+	/** commits */
+	@Override
+	public void close() throws IOException {
+		commit();
+	}
+	
+	/** files saved, including those pending */
+	public long getSaved() {
+		return saved;
+	}
+	/** files renamed into place */
+	public long getCommitted() {
+		return committed;
+	}
+	public int getPending() {
+		return PENDING.size();
+	}
+	/** fsyncs, of files and of directories */
+	public long getSyncs() {
+		return syncs;
+	}
+	
+	void force(Iterable<File> files) throws IOException {
+		if (null == EXECUTOR) {
+			for (File f : files)
+				force(f);
+			return;
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (final File f : files)
+			futures.add(EXECUTOR.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					sync(f);
+					return null;
+				}
+			}));
+		IOException failure = null;
+		for (Future<Void> f : futures)
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted syncing", e);
+			} catch (ExecutionException e) {
+				if (null == failure)
+					failure = e.getCause() instanceof IOException
+							? (IOException) e.getCause()
+							: new IOException(e.getCause());
+			}
+		syncs += futures.size();
+		if (null != failure)
+			throw failure;
+	}
+	void force(File f) throws IOException {
+		sync(f);
+		++syncs;
+	}
+	/** forces a file's data (n.b. through a descriptor of its own, which suffices for fsync) */
+	static void sync(File f) throws IOException {
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE); try {
+			ch.force(false);
+		} finally {
+			ch.close();
+		}
+	}
+	/**
+	 * forces a directory, so that renames within it are durable.
+	 * where the platform can't open a directory (e.g. Windows), does nothing; but a failure to force it is thrown.
+	 */
+	void forceDirectory(File dir) throws IOException {
+		FileChannel ch;
+		try {
+			ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			LOG.trace("unable to open directory {} to sync it: {}", dir, e);
+			return;
+		}
+		try {
+			ch.force(true);
+		} finally {
+			ch.close();
+		}
+		++syncs;
+	}
+	
+	static void move(File tmp, File to) throws IOException {
+		try {
+			Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			delete(tmp);
+			throw e;
+		}
+	}
+	static void delete(File tmp) {
+		if (! tmp.delete() && tmp.exists())
+			LOG.warn("unable to delete {}", tmp);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("SaveBatch(%s: %s saved, %s committed, %s pending, %s syncs)",
+				SYNC, saved, committed, PENDING.size(), syncs);
+	}
+}
@@ -1,10 +1,35 @@
 package org.fwb.file.dir;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.fwb.alj.col.SetUtil.SetView.ListSetView;
+import org.fwb.file.FileUtil;
+import org.fwb.io.Metrics;
+import org.fwb.io.Metrics.Operation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +81,442 @@ public class DirectoryUtility {
 		return retVal;
 	}
 	
+	/**
+	 * recursively deletes a directory (or leaf) as {@link #deleteDirectory(File)} does,
+	 * but in parallel, on the given pool, and tolerant of failure.
+	 * 
+	 * each directory is walked with a {@link DirectoryStream} (i.e. without listing it whole into an array),
+	 * its sub-directories are deleted by tasks of their own, and its leaves by tasks of up to {@link #DELETE_BATCH} each,
+	 * so siblings are deleted concurrently.
+	 * a failure to delete any path is recorded, and does not stop the rest from being deleted;
+	 * only the ancestors of a failed path remain.
+	 * 
+	 * note: unlike {@link #deleteDirectory(File)}, symbolic links are deleted, not followed.
+	 * 
+	 * @param pool e.g. {@link ForkJoinPool#commonPool()}
+	 * @return what was deleted, and what could not be
+	 */
+	public static final DeleteResult deleteDirectory(File dir, ForkJoinPool pool) {
+		DeleteResult retVal = new DeleteResult(dir);
+		pool.invoke(new DeleteTask(dir.toPath(), retVal));
+		retVal.elapsed = System.nanoTime() - retVal.elapsed;
+		if (Metrics.isEnabled())
+			Metrics.completed(Operation.DELETE, retVal.getLeaves() + retVal.getDirectories(), 0, 0, retVal.elapsed);
+		if (! retVal.isSuccess())
+			LOG.error("unable to delete {}", retVal);
+		return retVal;
+	}
+	
+	/** the most leaves deleted by a single task of {@link #deleteDirectory(File, ForkJoinPool)} */
+	static final int DELETE_BATCH = Integer.getInteger("org.fwb.dir.DirectoryUtility.DELETE_BATCH", 256);
+	
+	/** deletes a single leaf or (empty) directory, recording the outcome */
+	static void delete(Path p, boolean directory, DeleteResult result) {
+		try {
+			Files.delete(p);
+			(directory ? result.DIRECTORIES : result.LEAVES).incrementAndGet();
+		} catch (NoSuchFileException e) {
+			// someone else deleted it, which is just as good
+		} catch (IOException e) {
+			LOG.trace("unable to delete {}: {}", p, e);
+			result.FAILED.add(p.toFile());
+		}
+	}
+	
+	/**
+	 * deletes a path: a directory's contents (in parallel) then itself, or else a leaf;
+	 * recording each outcome in the result.
+	 */
+	static class DeleteTask extends RecursiveAction {
+		/** default */
+		private static final long serialVersionUID = 1;
+		
+		final Path PATH;
+		final DeleteResult RESULT;
+		DeleteTask(Path path, DeleteResult result) {
+			PATH = path;
+			RESULT = result;
+		}
+		
+		@Override
+		protected void compute() {
+			if (! Files.isDirectory(PATH, LinkOption.NOFOLLOW_LINKS)) {
+				delete(PATH, false, RESULT);
+				return;
+			}
+			
+			List<ForkJoinTask<?>> subtasks = new ArrayList<ForkJoinTask<?>>();
+			try {
+				DirectoryStream<Path> children = Files.newDirectoryStream(PATH); try {
+					List<Path> batch = new ArrayList<Path>();
+					for (Path child : children) {
+						if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+							subtasks.add(new DeleteTask(child, RESULT).fork());
+						} else {
+							batch.add(child);
+							if (batch.size() >= DELETE_BATCH) {
+								subtasks.add(new LeafBatch(batch, RESULT).fork());
+								batch = new ArrayList<Path>();
+							}
+						}
+					}
+					// the remainder, this task does itself
+					for (Path leaf : batch)
+						delete(leaf, false, RESULT);
+				} finally {
+					children.close();
+				}
+			} catch (NoSuchFileException e) {
+				// someone else deleted it, which is just as good
+				return;
+			} catch (IOException e) {
+				listingFailed(e);
+				return;
+			} catch (DirectoryIteratorException e) {
+				// e.g. an I/O error part way through the listing
+				listingFailed(e.getCause());
+				return;
+			} finally {
+				for (ForkJoinTask<?> subtask : subtasks)
+					subtask.join();
+			}
+			
+			delete(PATH, true, RESULT);
+		}
+		/** recorded as the directory's failure (n.b. not then deleted, as it can't be empty) */
+		void listingFailed(IOException e) {
+			LOG.trace("unable to list {}: {}", PATH, e);
+			RESULT.FAILED.add(PATH.toFile());
+		}
+	}
+	
+	/** deletes a batch of leaves */
+	static class LeafBatch extends RecursiveAction {
+		/** default */
+		private static final long serialVersionUID = 1;
+		
+		final List<Path> LEAVES;
+		final DeleteResult RESULT;
+		LeafBatch(List<Path> leaves, DeleteResult result) {
+			LEAVES = leaves;
+			RESULT = result;
+		}
+		
+		@Override
+		protected void compute() {
+			for (Path leaf : LEAVES)
+				delete(leaf, false, RESULT);
+		}
+	}
+	
+	/**
+	 * the outcome of {@link DirectoryUtility#deleteDirectory(File, ForkJoinPool)}:
+	 * how many leaves and directories were deleted, which paths could not be, and how long it took.
+	 */
+	public static class DeleteResult {
+		public final File ROOT;
+		final AtomicLong
+			LEAVES = new AtomicLong(),
+			DIRECTORIES = new AtomicLong();
+		final Queue<File> FAILED = new ConcurrentLinkedQueue<File>();
+		/** the start time until done, then the elapsed time, in nanoseconds */
+		long elapsed = System.nanoTime();
+		DeleteResult(File root) {
+			ROOT = root;
+		}
+		
+		/** whether everything was deleted, i.e. the root no longer exists */
+		public boolean isSuccess() {
+			return FAILED.isEmpty();
+		}
+		public long getLeaves() {
+			return LEAVES.get();
+		}
+		public long getDirectories() {
+			return DIRECTORIES.get();
+		}
+		/** the paths which could not be deleted (including the ancestors of any such path) */
+		public List<File> getFailed() {
+			return Collections.unmodifiableList(new ArrayList<File>(FAILED));
+		}
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s: deleted %s leaves and %s directories in %sms, %s failed",
+					ROOT, LEAVES.get(), DIRECTORIES.get(), getElapsed(TimeUnit.MILLISECONDS), FAILED.size());
+		}
+	}
+	
+	/** how {@link #copyDirectory} copies each leaf */
+	public enum CopyMode {
+		/** a full copy, channel to channel (see {@link FileUtil#copy(File, File)}) */
+		COPY,
+		/** a copy leaving holes (on filesystems with sparse files) wherever the source has a block of zeros */
+		SPARSE,
+		/**
+		 * a hard link where possible (i.e. within a filesystem), otherwise a copy.
+		 * n.b. the content is then shared, not duplicated, so this is only for inputs which won't be modified (in place).
+		 */
+		LINK
+	}
+	
+	/**
+	 * recursively copies a directory into another (created if necessary, or merged into if it exists),
+	 * in parallel on the given pool, much as {@link #deleteDirectory(File, ForkJoinPool)} deletes:
+	 * a task per directory, and leaves in batches of up to {@link #COPY_BATCH}.
+	 * modification times are preserved (of directories too), and symbolic links are copied as links, not followed.
+	 * a failure to copy any path is recorded, and does not stop the rest from being copied.
+	 * 
+	 * @param filter which leaves to copy (e.g. from {@link FileFilters}), or null for all;
+	 *  directories are always copied, so the tree's structure is, even where all of a directory's leaves are filtered out
+	 * @param pool e.g. {@link ForkJoinPool#commonPool()}
+	 * @return what was copied, and what could not be
+	 * @throws IllegalArgumentException if from isn't a directory, or if to is (or is within) from
+	 */
+	public static final CopyResult copyDirectory(File from, File to, FileFilter filter, CopyMode mode, ForkJoinPool pool) {
+		Preconditions.checkArgument(from.isDirectory(), "not a directory: %s", from);
+		// as cp refuses, lest the copy recurse into itself
+		Preconditions.checkArgument(! to.toPath().toAbsolutePath().normalize().startsWith(from.toPath().toAbsolutePath().normalize()),
+				"cannot copy a directory into itself: %s into %s", from, to);
+		CopyResult retVal = new CopyResult(from, to);
+		pool.invoke(new CopyTask(from.toPath(), to.toPath(), null == filter ? FileFilters.FF_TRUE : filter, mode, retVal));
+		retVal.elapsed = System.nanoTime() - retVal.elapsed;
+		if (! retVal.isSuccess())
+			LOG.error("unable to copy {}", retVal);
+		return retVal;
+	}
+	
+	/** the most leaves copied by a single task of {@link #copyDirectory} */
+	static final int COPY_BATCH = Integer.getInteger("org.fwb.dir.DirectoryUtility.COPY_BATCH", 64);
+	/** the granularity of {@link CopyMode#SPARSE} holes */
+	static final int SPARSE_BLOCK = 1 << 12;
+	
+	/** copies a single leaf, recording the outcome */
+	static void copy(Path from, BasicFileAttributes attributes, Path to, CopyMode mode, CopyResult result) {
+		try {
+			// never write through an existing target, which may be a link to the source itself
+			Files.deleteIfExists(to);
+			if (attributes.isSymbolicLink()) {
+				Files.createSymbolicLink(to, Files.readSymbolicLink(from));
+				result.LEAVES.incrementAndGet();
+				return;
+			}
+			if (CopyMode.LINK == mode)
+				try {
+					Files.createLink(to, from);
+					result.LINKS.incrementAndGet();
+					return;
+				} catch (IOException e) {
+					LOG.trace("unable to link {}, copying: {}", from, e);
+				} catch (UnsupportedOperationException e) {
+					LOG.trace("unable to link {}, copying: {}", from, e);
+				}
+			long bytes = CopyMode.SPARSE == mode
+					? sparseCopy(from, to)
+					: FileUtil.copy(from.toFile(), to.toFile()).BYTES;
+			Files.setLastModifiedTime(to, attributes.lastModifiedTime());
+			result.LEAVES.incrementAndGet();
+			result.BYTES.addAndGet(bytes);
+		} catch (IOException e) {
+			LOG.trace("unable to copy {}: {}", from, e);
+			result.FAILED.add(from.toFile());
+		}
+	}
+	
+	/** copies a file, seeking past (rather than writing) each block of zeros */
+	static long sparseCopy(Path from, Path to) throws IOException {
+		boolean timed = Metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+		FileChannel in = FileChannel.open(from, StandardOpenOption.READ); try {
+			FileChannel out = FileChannel.open(to,
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE); try {
+				ByteBuffer bb = ByteBuffer.allocate(SPARSE_BLOCK);
+				long position = 0;
+				for (int n; (n = in.read(bb, position)) > 0; position += n) {
+					bb.flip();
+					if (! isZero(bb))
+						while (bb.hasRemaining())
+							out.write(bb, position + bb.position());
+					bb.clear();
+				}
+				// a trailing hole still counts toward the length
+				if (out.size() < position)
+					out.write(ByteBuffer.allocate(1), position - 1);
+				// as FileUtil.copy would
+				if (timed)
+					Metrics.completed(Operation.COPY, 1, position, position, System.nanoTime() - start);
+				return position;
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	static boolean isZero(ByteBuffer bb) {
+		byte[] b = bb.array();
+		for (int i = bb.position(); i < bb.limit(); ++i)
+			if (0 != b[i])
+				return false;
+		return true;
+	}
+	
+	/** copies a directory: its leaves (in batches) and sub-directories (each by a task of its own) in parallel */
+	static class CopyTask extends RecursiveAction {
+		/** default */
+		private static final long serialVersionUID = 1;
+		
+		final Path FROM, TO;
+		final FileFilter FILTER;
+		final CopyMode MODE;
+		final CopyResult RESULT;
+		CopyTask(Path from, Path to, FileFilter filter, CopyMode mode, CopyResult result) {
+			FROM = from;
+			TO = to;
+			FILTER = filter;
+			MODE = mode;
+			RESULT = result;
+		}
+		
+		@Override
+		protected void compute() {
+			try {
+				if (! Files.isDirectory(TO))
+					Files.createDirectories(TO);
+				RESULT.DIRECTORIES.incrementAndGet();
+			} catch (IOException e) {
+				LOG.trace("unable to create {}: {}", TO, e);
+				RESULT.FAILED.add(FROM.toFile());
+				return;
+			}
+			
+			List<ForkJoinTask<?>> subtasks = new ArrayList<ForkJoinTask<?>>();
+			try {
+				DirectoryStream<Path> children = Files.newDirectoryStream(FROM); try {
+					List<Path> batch = new ArrayList<Path>();
+					for (Path child : children) {
+						Path target = TO.resolve(child.getFileName().toString());
+						if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+							subtasks.add(new CopyTask(child, target, FILTER, MODE, RESULT).fork());
+						} else if (FILTER.accept(child.toFile())) {
+							batch.add(child);
+							if (batch.size() >= COPY_BATCH) {
+								subtasks.add(new CopyBatch(batch, TO, MODE, RESULT).fork());
+								batch = new ArrayList<Path>();
+							}
+						}
+					}
+					// the remainder, this task does itself
+					new CopyBatch(batch, TO, MODE, RESULT).compute();
+				} finally {
+					children.close();
+				}
+			} catch (IOException e) {
+				LOG.trace("unable to list {}: {}", FROM, e);
+				RESULT.FAILED.add(FROM.toFile());
+			} catch (DirectoryIteratorException e) {
+				// e.g. an I/O error part way through the listing
+				LOG.trace("unable to list {}: {}", FROM, e.getCause());
+				RESULT.FAILED.add(FROM.toFile());
+			} finally {
+				for (ForkJoinTask<?> subtask : subtasks)
+					subtask.join();
+			}
+			
+			// last, since copying into it changes it
+			try {
+				Files.setLastModifiedTime(TO, Files.getLastModifiedTime(FROM));
+			} catch (IOException e) {
+				LOG.trace("unable to set the time of {}: {}", TO, e);
+			}
+		}
+	}
+	
+	/** copies a batch of leaves into a directory */
+	static class CopyBatch extends RecursiveAction {
+		/** default */
+		private static final long serialVersionUID = 1;
+		
+		final List<Path> LEAVES;
+		final Path TO;
+		final CopyMode MODE;
+		final CopyResult RESULT;
+		CopyBatch(List<Path> leaves, Path to, CopyMode mode, CopyResult result) {
+			LEAVES = leaves;
+			TO = to;
+			MODE = mode;
+			RESULT = result;
+		}
+		
+		@Override
+		protected void compute() {
+			for (Path leaf : LEAVES)
+				try {
+					BasicFileAttributes a = Files.readAttributes(leaf, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					copy(leaf, a, TO.resolve(leaf.getFileName().toString()), MODE, RESULT);
+				} catch (IOException e) {
+					LOG.trace("unable to copy {}: {}", leaf, e);
+					RESULT.FAILED.add(leaf.toFile());
+				}
+		}
+	}
+	
+	/**
+	 * the outcome of {@link DirectoryUtility#copyDirectory}:
+	 * how many leaves were copied (or linked), and directories created, which paths could not be copied, and how long it took.
+	 */
+	public static class CopyResult {
+		public final File ROOT, TARGET;
+		final AtomicLong
+			LEAVES = new AtomicLong(),
+			LINKS = new AtomicLong(),
+			DIRECTORIES = new AtomicLong(),
+			BYTES = new AtomicLong();
+		final Queue<File> FAILED = new ConcurrentLinkedQueue<File>();
+		/** the start time until done, then the elapsed time, in nanoseconds */
+		long elapsed = System.nanoTime();
+		CopyResult(File root, File target) {
+			ROOT = root;
+			TARGET = target;
+		}
+		
+		public boolean isSuccess() {
+			return FAILED.isEmpty();
+		}
+		/** leaves copied (rather than linked) */
+		public long getLeaves() {
+			return LEAVES.get();
+		}
+		/** leaves hard-linked */
+		public long getLinks() {
+			return LINKS.get();
+		}
+		public long getDirectories() {
+			return DIRECTORIES.get();
+		}
+		/** bytes copied (excluding those linked) */
+		public long getBytes() {
+			return BYTES.get();
+		}
+		/** the source paths which could not be copied */
+		public List<File> getFailed() {
+			return Collections.unmodifiableList(new ArrayList<File>(FAILED));
+		}
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s to %s: copied %s leaves (%s), linked %s, and %s directories in %sms, %s failed",
+					ROOT, TARGET, LEAVES.get(), FileUtil.getSizeString(BYTES.get()), LINKS.get(), DIRECTORIES.get(),
+					getElapsed(TimeUnit.MILLISECONDS), FAILED.size());
+		}
+	}
+	
 	/**
 	 * wraps {@link File#File(File, String)} in a {@link Function}.
 	 * n.b. it is literally that wrapper, and provides no safeguards
@@ -74,6 +535,10 @@ public class DirectoryUtility {
 			return new File(PARENT, fileName);
 		}
 		
+		/**
+		 * lists the directory afresh upon every call;
+		 * for repeated lookups, see {@link WatchedDirectory}
+		 */
 		public Map<String, File> getDirectoryMap() {
 			return Maps.asMap(
 					new ListSetView<String>(Arrays.asList(
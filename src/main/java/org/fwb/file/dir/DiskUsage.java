@@ -0,0 +1,218 @@
+package org.fwb.file.dir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fwb.file.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * du, i.e. the total bytes, files and latest modification of each subtree of a directory,
+ * scanned in parallel (a fork-join task per directory) without following symbolic links.
+ * 
+ * the result of each scan is kept (per root), and rescanning reuses it:
+ * a directory whose own modification time is unchanged (i.e. no child added, removed nor renamed)
+ * isn't re-listed, nor are its files re-read; only its subdirectories are checked in turn.
+ * n.b. so a file modified in place (which doesn't touch its directory) is missed until its directory changes,
+ * or the cache is {@link #invalidate invalidated}.
+ */
+public class DiskUsage {
+	static final Logger LOG = LoggerFactory.getLogger(DiskUsage.class);
+	
+	final ForkJoinPool POOL;
+	/** by root: its last scan */
+	final Map<File, Usage> CACHE = new ConcurrentHashMap<File, Usage>();
+	final AtomicLong
+		HITS = new AtomicLong(),
+		MISSES = new AtomicLong();
+	
+	public DiskUsage() {
+		this(ForkJoinPool.commonPool());
+	}
+	public DiskUsage(ForkJoinPool pool) {
+		POOL = pool;
+	}
+	
+	/** scans the given directory, reusing its last scan (if any) for unchanged directories */
+	public Usage scan(File root) throws IOException {
+		File key = root.getAbsoluteFile();
+		if (! key.isDirectory())
+			throw new NoSuchFileException(root.getPath(), null, "not a directory");
+		try {
+			Usage retVal = POOL.invoke(new ScanTask(key, CACHE.get(key)));
+			if (null == retVal)
+				throw new NoSuchFileException(root.getPath(), null, "gone while scanning");
+			CACHE.put(key, retVal);
+			return retVal;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/** forgets the last scan of the given root, so that its next scan reads everything afresh */
+	public void invalidate(File root) {
+		CACHE.remove(root.getAbsoluteFile());
+	}
+	public void clear() {
+		CACHE.clear();
+	}
+	
+	/** directories reused from the last scan, unchanged */
+	public long getHits() {
+		return HITS.get();
+	}
+	/** directories (re-)listed */
+	public long getMisses() {
+		return MISSES.get();
+	}
+	
+	class ScanTask extends RecursiveTask<Usage> {
+		private static final long serialVersionUID = 1;
+		
+		final File DIR;
+		/** the last scan of this directory, or null */
+		final Usage PREVIOUS;
+		ScanTask(File dir, Usage previous) {
+			DIR = dir;
+			PREVIOUS = previous;
+		}
+		
+		@Override
+		protected Usage compute() {
+			try {
+				// before listing, so that a change during the listing shows at the next scan
+				FileTime modified = Files.getLastModifiedTime(DIR.toPath(), LinkOption.NOFOLLOW_LINKS);
+				Usage own;
+				List<String> dirs;
+				if (null != PREVIOUS && modified.equals(PREVIOUS.MODIFIED)) {
+					HITS.incrementAndGet();
+					own = PREVIOUS;
+					dirs = new ArrayList<String>(PREVIOUS.CHILDREN.keySet());
+				} else {
+					MISSES.incrementAndGet();
+					dirs = new ArrayList<String>();
+					own = list(modified, dirs);
+				}
+				
+				List<ScanTask> tasks = new ArrayList<ScanTask>(dirs.size());
+				for (String name : dirs)
+					tasks.add(new ScanTask(new File(DIR, name),
+							null == PREVIOUS ? null : PREVIOUS.CHILDREN.get(name)));
+				invokeAll(tasks);
+				
+				SortedMap<String, Usage> children = new TreeMap<String, Usage>();
+				for (ScanTask task : tasks) {
+					Usage child = task.join();
+					if (null != child)
+						children.put(child.FILE.getName(), child);
+				}
+				return new Usage(DIR, modified, own.OWN_BYTES, own.OWN_FILES, own.OWN_LAST_MODIFIED, children);
+			} catch (NoSuchFileException e) {
+				LOG.trace("gone while scanning: {}", DIR);
+				return null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		/** reads this directory's own files, and adds its subdirectories' names to the given list */
+		Usage list(FileTime modified, List<String> dirs) throws IOException {
+			long bytes = 0, files = 0, lastModified = 0;
+			DirectoryStream<Path> ds = Files.newDirectoryStream(DIR.toPath()); try {
+				for (Path p : ds) {
+					BasicFileAttributes a;
+					try {
+						a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						continue;
+					}
+					if (a.isDirectory()) {
+						dirs.add(p.getFileName().toString());
+					} else {
+						bytes += a.size();
+						++files;
+						lastModified = Math.max(lastModified, a.lastModifiedTime().toMillis());
+					}
+				}
+			} finally {
+				ds.close();
+			}
+			return new Usage(DIR, modified, bytes, files, lastModified, Collections.<String, Usage>emptySortedMap());
+		}
+	}
+	
+	/** the usage of a directory, and (navigably) of each of its subdirectories */
+	public static class Usage {
+		public final File FILE;
+		/** totals for the whole subtree */
+		public final long BYTES, FILES, DIRECTORIES, LAST_MODIFIED;
+		/** totals for this directory's own files */
+		final long OWN_BYTES, OWN_FILES, OWN_LAST_MODIFIED;
+		/** the directory's own modification time, by which it's cached */
+		final FileTime MODIFIED;
+		final SortedMap<String, Usage> CHILDREN;
+		
+		Usage(File file, FileTime modified, long ownBytes, long ownFiles, long ownLastModified, SortedMap<String, Usage> children) {
+			FILE = file;
+			MODIFIED = modified;
+			OWN_BYTES = ownBytes;
+			OWN_FILES = ownFiles;
+			OWN_LAST_MODIFIED = ownLastModified;
+			CHILDREN = Collections.unmodifiableSortedMap(children);
+			
+			long bytes = ownBytes, files = ownFiles, dirs = 1, last = Math.max(ownLastModified, modified.toMillis());
+			for (Usage child : children.values()) {
+				bytes += child.BYTES;
+				files += child.FILES;
+				dirs += child.DIRECTORIES;
+				last = Math.max(last, child.LAST_MODIFIED);
+			}
+			BYTES = bytes;
+			FILES = files;
+			DIRECTORIES = dirs;
+			LAST_MODIFIED = last;
+		}
+		
+		/** the subdirectories, by name */
+		public SortedMap<String, Usage> getChildren() {
+			return CHILDREN;
+		}
+		
+		/** the usage of the given descendant (by relative path of names), or null if there's no such directory */
+		public Usage get(String... names) {
+			Usage retVal = this;
+			for (int i = 0; i < names.length && null != retVal; ++i)
+				retVal = retVal.CHILDREN.get(names[i]);
+			return retVal;
+		}
+		
+		/** {@link #BYTES} as formatted by {@link org.fwb.file.ByteSizeFormat} */
+		public String getSizeString() {
+			return FileUtil.getSizeString(BYTES);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Usage(%s: %s in %s files, %s directories)", FILE, getSizeString(), FILES, DIRECTORIES);
+		}
+	}
+}
@@ -3,6 +3,12 @@ package org.fwb.file.dir;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.swing.JOptionPane;
 
@@ -91,4 +97,256 @@ public class FileFilters {
 			return FNF.accept(input.getParentFile(), input.getName());
 		}
 	}
+	
+	/**
+	 * a filter of names alone, compiled once, and evaluated upon the name as given
+	 * (or, for a File or Path, the end of its path string), so never allocating a File nor Path, nor reading the filesystem.
+	 * so it's cheap to use as any of {@link Predicate}, {@link FilenameFilter}, {@link FileFilter} or {@link DirectoryStream.Filter};
+	 * and see {@link #then(FileFilter)} to precede a costlier test.
+	 */
+	public static abstract class NameFilter implements Predicate<String>, FilenameFilter, FileFilter, DirectoryStream.Filter<Path> {
+		/** whether the name (from the given index to the end of the given string) matches */
+		abstract boolean matches(String s, int from);
+		
+		@Override
+		public boolean apply(String name) {
+			return matches(name, 0);
+		}
+		@Override
+		public boolean accept(File dir, String name) {
+			return matches(name, 0);
+		}
+		@Override
+		public boolean accept(File pathname) {
+			String path = pathname.getPath();
+			return matches(path, path.lastIndexOf(File.separatorChar) + 1);
+		}
+		@Override
+		public boolean accept(Path entry) {
+			String path = entry.toString();
+			return matches(path, path.lastIndexOf(entry.getFileSystem().getSeparator()) + 1);
+		}
+		
+		public NameFilter and(final NameFilter other) {
+			final NameFilter self = this;
+			return new NameFilter() {
+				@Override
+				boolean matches(String s, int from) {
+					return self.matches(s, from) && other.matches(s, from);
+				}
+			};
+		}
+		public NameFilter or(final NameFilter other) {
+			final NameFilter self = this;
+			return new NameFilter() {
+				@Override
+				boolean matches(String s, int from) {
+					return self.matches(s, from) || other.matches(s, from);
+				}
+			};
+		}
+		public NameFilter negate() {
+			final NameFilter self = this;
+			return new NameFilter() {
+				@Override
+				boolean matches(String s, int from) {
+					return ! self.matches(s, from);
+				}
+			};
+		}
+		
+		/** this, and then (only if this matches) the given, e.g. attribute-based, filter */
+		public FileFilter then(final FileFilter ff) {
+			return new FileFilter() {
+				@Override
+				public boolean accept(File pathname) {
+					return NameFilter.this.accept(pathname) && ff.accept(pathname);
+				}
+			};
+		}
+		/** this, and then (only if this matches) the given, e.g. attribute-based, filter */
+		public DirectoryStream.Filter<Path> then(final DirectoryStream.Filter<? super Path> filter) {
+			return new DirectoryStream.Filter<Path>() {
+				@Override
+				public boolean accept(Path entry) throws IOException {
+					return NameFilter.this.accept(entry) && filter.accept(entry);
+				}
+			};
+		}
+	}
+	
+	/** names matching the given glob, i.e. *, ?, [...] (or [!...]), {...,...} and backslash escapes, as {@link java.nio.file.FileSystem#getPathMatcher} */
+	public static NameFilter glob(String glob) {
+		return regex(Pattern.compile(globToRegex(glob)));
+	}
+	public static NameFilter regex(String regex) {
+		return regex(Pattern.compile(regex));
+	}
+	/** names (entirely) matching the given pattern */
+	public static NameFilter regex(final Pattern pattern) {
+		return new NameFilter() {
+			/** reset rather than re-created upon each match */
+			final ThreadLocal<Matcher> MATCHER = new ThreadLocal<Matcher>() {
+				@Override
+				protected Matcher initialValue() {
+					return pattern.matcher("");
+				}
+			};
+			@Override
+			boolean matches(String s, int from) {
+				Matcher m = MATCHER.get().reset(s);
+				return m.region(from, s.length()).matches();
+			}
+			@Override
+			public String toString() {
+				return "regex(" + pattern + ")";
+			}
+		};
+	}
+	
+	/** names with any of the given extensions, as {@link org.fwb.file.FileUtil#getExtension} (i.e. after the last dot) */
+	public static NameFilter extensions(String... extensions) {
+		return extensions(false, extensions);
+	}
+	public static NameFilter extensions(final boolean ignoreCase, String... extensions) {
+		final String[] EXTENSIONS = extensions.clone();
+		return new NameFilter() {
+			@Override
+			boolean matches(String s, int from) {
+				int dot = s.lastIndexOf('.');
+				if (dot < from)
+					return false;
+				int length = s.length() - dot - 1;
+				for (String ext : EXTENSIONS)
+					if (ext.length() == length && s.regionMatches(ignoreCase, dot + 1, ext, 0, length))
+						return true;
+				return false;
+			}
+			@Override
+			public String toString() {
+				return "extensions(" + Arrays.toString(EXTENSIONS) + ")";
+			}
+		};
+	}
+	
+	/** names starting with any of the given prefixes, matched by a trie, i.e. in a single pass of the name */
+	public static NameFilter prefixes(String... prefixes) {
+		final Trie ROOT = new Trie();
+		for (String prefix : prefixes)
+			ROOT.add(prefix);
+		final String DESCRIPTION = "prefixes(" + Arrays.toString(prefixes) + ")";
+		return new NameFilter() {
+			@Override
+			boolean matches(String s, int from) {
+				Trie node = ROOT;
+				for (int i = from; ! node.end; ++i) {
+					if (i == s.length())
+						return false;
+					int index = Arrays.binarySearch(node.keys, s.charAt(i));
+					if (0 > index)
+						return false;
+					node = node.next[index];
+				}
+				return true;
+			}
+			@Override
+			public String toString() {
+				return DESCRIPTION;
+			}
+		};
+	}
+	
+	/** a node of a prefix trie, its children sorted by key */
+	static class Trie {
+		boolean end = false;
+		char[] keys = new char[0];
+		Trie[] next = new Trie[0];
+		
+		void add(String s) {
+			Trie node = this;
+			for (int i = 0; i < s.length(); ++i) {
+				char c = s.charAt(i);
+				int index = Arrays.binarySearch(node.keys, c);
+				if (0 > index) {
+					index = -index - 1;
+					node.keys = insert(node.keys, index, c);
+					Trie[] next = Arrays.copyOf(node.next, node.next.length + 1);
+					System.arraycopy(next, index, next, index + 1, node.next.length - index);
+					next[index] = new Trie();
+					node.next = next;
+				}
+				node = node.next[index];
+			}
+			node.end = true;
+		}
+		static char[] insert(char[] a, int index, char c) {
+			char[] retVal = Arrays.copyOf(a, a.length + 1);
+			System.arraycopy(retVal, index, retVal, index + 1, a.length - index);
+			retVal[index] = c;
+			return retVal;
+		}
+	}
+	
+	/** a regular expression equivalent to the given (name) glob */
+	static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); ++i) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				sb.append(".*");
+				break;
+			case '?':
+				sb.append('.');
+				break;
+			case '[':
+				int end = glob.indexOf(']', i + 2);
+				if (0 > end)
+					throw new IllegalArgumentException("unclosed [ in glob: " + glob);
+				sb.append('[');
+				int j = i + 1;
+				if ('!' == glob.charAt(j)) {
+					sb.append('^');
+					++j;
+				}
+				for (; j < end; ++j) {
+					char k = glob.charAt(j);
+					if ('\\' == k || '[' == k || '&' == k || '^' == k)
+						sb.append('\\');
+					sb.append(k);
+				}
+				sb.append(']');
+				i = end;
+				break;
+			case '{':
+				if (inGroup)
+					throw new IllegalArgumentException("nested { in glob: " + glob);
+				inGroup = true;
+				sb.append("(?:");
+				break;
+			case '}':
+				if (! inGroup)
+					throw new IllegalArgumentException("unopened } in glob: " + glob);
+				inGroup = false;
+				sb.append(')');
+				break;
+			case ',':
+				sb.append(inGroup ? "|" : ",");
+				break;
+			case '\\':
+				if (++i == glob.length())
+					throw new IllegalArgumentException("trailing \\ in glob: " + glob);
+				c = glob.charAt(i);
+				// fall through
+			default:
+				if ("\\.^$|()[]{}+*?".indexOf(c) >= 0)
+					sb.append('\\');
+				sb.append(c);
+			}
+		}
+		if (inGroup)
+			throw new IllegalArgumentException("unclosed { in glob: " + glob);
+		return sb.toString();
+	}
 }
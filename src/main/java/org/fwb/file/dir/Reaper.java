@@ -0,0 +1,234 @@
+package org.fwb.file.dir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * deletes directories in the background, so that closing one costs only a rename.
+ * 
+ * {@link #dispose} atomically moves a directory into the trash area beside it
+ * (a "{@value #TRASH}" directory in its parent, so the move never crosses volumes),
+ * and queues it for a single background thread,
+ * which deletes one trashed tree at a time, in parallel on a pool of {@link #CONCURRENCY} threads (bounding the I/O).
+ * 
+ * each JVM trashes into a sub-directory of its own, whose lock file it holds while alive.
+ * the first use of a trash area sweeps it of every other sub-directory whose lock is free,
+ * i.e. the trash of JVMs that died before emptying it.
+ * upon JVM shutdown, the reaper waits (up to {@link #DRAIN_SECONDS}) for its queue to drain,
+ * and reports whatever remains for the next sweep.
+ */
+public class Reaper {
+	static final Logger LOG = LoggerFactory.getLogger(Reaper.class);
+	
+	static final String
+		TRASH = ".TempDirectory.trash",
+		LOCK_SUFFIX = ".lock";
+	
+	/** the parallelism with which each trashed tree is deleted */
+	static final int CONCURRENCY = Integer.getInteger("org.fwb.dir.Reaper.CONCURRENCY", 2);
+	/** how long the shutdown hook waits for the trash to be emptied */
+	static final long DRAIN_SECONDS = Long.getLong("org.fwb.dir.Reaper.DRAIN_SECONDS", 10);
+	
+	private static Reaper instance = null;
+	/** the reaper of this JVM, created (and its shutdown hook registered) upon first use */
+	public static synchronized Reaper getInstance() {
+		if (null == instance) {
+			instance = new Reaper();
+			Runtime.getRuntime().addShutdownHook(new Thread("Reaper shutdown") {
+				@Override
+				public void run() {
+					instance.shutdown();
+				}
+			});
+		}
+		return instance;
+	}
+	
+	/** this JVM's name for its own trash */
+	final String ID = UUID.randomUUID().toString();
+	final ForkJoinPool POOL = new ForkJoinPool(CONCURRENCY);
+	final ExecutorService REAPER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread retVal = new Thread(r, "Reaper");
+			retVal.setDaemon(true);
+			return retVal;
+		}
+	});
+	/** by trash area: the lock this JVM holds upon its trash there */
+	final Map<File, FileChannel> LOCKS = new HashMap<File, FileChannel>();
+	final AtomicLong
+		PENDING = new AtomicLong(),
+		COUNTER = new AtomicLong();
+	
+	Reaper() { }
+	
+	/**
+	 * moves the given directory into the trash, and queues it for deletion.
+	 * if it cannot be moved (atomically), or the trash cannot be created (e.g. a shared location's trash area
+	 * belongs to another user), it is queued for deletion in place.
+	 */
+	public void dispose(File dir) throws IOException {
+		File target;
+		try {
+			File trash = trash(dir.getAbsoluteFile().getParentFile());
+			target = new File(trash, COUNTER.incrementAndGet() + "-" + dir.getName());
+			Files.move(dir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.warn("unable to trash {}, reaping in place: {}", dir, e);
+			target = dir;
+		}
+		reap(target, null);
+	}
+	
+	/**
+	 * readies the trash area of the given location (e.g. {@code java.io.tmpdir}),
+	 * which sweeps it of the trash of crashed JVMs, without waiting for the first {@link #dispose} there.
+	 * e.g. call this at startup.
+	 */
+	public void sweep(File location) throws IOException {
+		trash(location.getAbsoluteFile());
+	}
+	
+	/** the number of trashed trees not yet deleted */
+	public long getPending() {
+		return PENDING.get();
+	}
+	
+	/**
+	 * waits for the trash to be emptied
+	 * @return whether it was, within the given time
+	 */
+	public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (PENDING) {
+			for (long remaining; PENDING.get() > 0; ) {
+				remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(PENDING, remaining);
+			}
+		}
+		return true;
+	}
+	
+	void shutdown() {
+		try {
+			if (! drain(DRAIN_SECONDS, TimeUnit.SECONDS))
+				LOG.warn("{} trashed directories left for the next sweep", PENDING.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * this JVM's trash directory in the given location,
+	 * creating (and locking) it and sweeping the location's trash area upon first use.
+	 */
+	synchronized File trash(File location) throws IOException {
+		File area = new File(location, TRASH);
+		File retVal = new File(area, ID);
+		if (! LOCKS.containsKey(area)) {
+			if (! area.isDirectory() && ! area.mkdirs())
+				throw new IOException("unable to create trash area: " + area);
+			FileChannel lock = FileChannel.open(new File(area, ID + LOCK_SUFFIX).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			lock.lock();
+			LOCKS.put(area, lock);
+			if (! retVal.mkdir())
+				throw new IOException("unable to create trash: " + retVal);
+			sweepArea(area);
+		}
+		return retVal;
+	}
+	
+	/**
+	 * queues the deletion of every other JVM's trash in the given area, if that JVM is gone (its lock is free)
+	 */
+	void sweepArea(File area) {
+		for (File f : area.listFiles()) {
+			if (! f.isDirectory() || ID.equals(f.getName()))
+				continue;
+			
+			File lockFile = new File(area, f.getName() + LOCK_SUFFIX);
+			FileChannel lock = null;
+			try {
+				if (lockFile.exists()) {
+					lock = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE);
+					FileLock fl;
+					try {
+						fl = lock.tryLock();
+					} catch (OverlappingFileLockException e) {
+						fl = null; // held within this JVM
+					}
+					if (null == fl) {
+						lock.close();
+						continue;
+					}
+				}
+				LOG.info("sweeping abandoned trash: {}", f);
+				reap(f, lock);
+			} catch (IOException e) {
+				LOG.warn("unable to sweep {}: {}", f, e);
+				close(lock);
+			}
+		}
+	}
+	
+	/**
+	 * queues the given tree for deletion
+	 * @param lock if not null, the (held) lock upon an abandoned trash, to be deleted (and released) after it
+	 */
+	void reap(final File tree, final FileChannel lock) {
+		PENDING.incrementAndGet();
+		REAPER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					DirectoryUtility.DeleteResult result = DirectoryUtility.deleteDirectory(tree, POOL);
+					LOG.trace("reaped {}", result);
+					if (null != lock && result.isSuccess())
+						new File(tree.getPath() + LOCK_SUFFIX).delete();
+				} finally {
+					close(lock);
+					synchronized (PENDING) {
+						PENDING.decrementAndGet();
+						PENDING.notifyAll();
+					}
+				}
+			}
+		});
+	}
+	
+	static void close(FileChannel ch) {
+		if (null != ch)
+			try {
+				ch.close();
+			} catch (IOException e) {
+				LOG.trace("unable to close {}: {}", ch, e);
+			}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Reaper(%s: %s pending)", ID, PENDING.get());
+	}
+}
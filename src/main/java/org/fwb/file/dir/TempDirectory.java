@@ -3,6 +3,7 @@ package org.fwb.file.dir;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +24,11 @@ public class TempDirectory extends File implements Closeable {
 	protected static final File
 		DEFAULT_LOCATION = null;
 	
+	/** if set, {@link #close()} deletes in parallel, on the {@link ForkJoinPool#commonPool() common pool} */
+	static final boolean PARALLEL_CLOSE = Boolean.getBoolean("org.fwb.dir.TempDirectory.PARALLEL_CLOSE");
+	/** if set, {@link #close()} is {@link #closeAsync()} */
+	static final boolean ASYNC_CLOSE = Boolean.getBoolean("org.fwb.dir.TempDirectory.ASYNC_CLOSE");
+	
 	public TempDirectory() throws IOException {
 		this(DEFAULT_PREFIX);
 	}
@@ -52,15 +58,53 @@ public class TempDirectory extends File implements Closeable {
 		LOG.trace("created TempDirectory({}, {}, {}): {}", prefix, suffix, location, this);
 	}
 	
+	/**
+	 * adopts an existing directory, e.g. one created earlier by another instance
+	 * @see TempDirectoryPool
+	 */
+	TempDirectory(File dir) {
+		super(dir.getPath());
+	}
+	
 	/**
 	 * deletes this directory, and all of its contents recursively, in the filesystem.
 	 * 
 	 * @throws IOException if deleteDirectory returns false
 	 * @see DirectoryUtility#deleteDirectory(File)
+	 * @see #PARALLEL_CLOSE
+	 * @see #ASYNC_CLOSE
 	 */
 	@Override
 	public void close() throws IOException {
-		if (! DirectoryUtility.deleteDirectory(this))
+		if (ASYNC_CLOSE)
+			closeAsync();
+		else if (PARALLEL_CLOSE)
+			close(ForkJoinPool.commonPool());
+		else if (! DirectoryUtility.deleteDirectory(this))
 			throw new IOException("could not deleteDirectory: " + this);
 	}
+	
+	/**
+	 * deletes this directory, and all of its contents recursively, in parallel on the given pool.
+	 * a failure to delete any part does not stop the rest from being deleted.
+	 * 
+	 * @throws IOException if anything could not be deleted
+	 * @see DirectoryUtility#deleteDirectory(File, ForkJoinPool)
+	 */
+	public void close(ForkJoinPool pool) throws IOException {
+		DirectoryUtility.DeleteResult result = DirectoryUtility.deleteDirectory(this, pool);
+		if (! result.isSuccess())
+			throw new IOException("could not deleteDirectory: " + result + " " + result.getFailed());
+	}
+	
+	/**
+	 * moves this directory into the trash (an O(1) rename), and leaves its deletion to a background thread.
+	 * upon return, this File no longer exists; unless it could not be trashed,
+	 * in which case the background thread deletes it in place.
+	 * 
+	 * @see Reaper
+	 */
+	public void closeAsync() throws IOException {
+		Reaper.getInstance().dispose(this);
+	}
 }
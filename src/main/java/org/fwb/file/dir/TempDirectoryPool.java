@@ -0,0 +1,182 @@
+package org.fwb.file.dir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * hands out {@link TempDirectory TempDirectories} from a stock of ready, empty ones,
+ * which a background thread keeps topped up; so creating one costs the caller only a queue poll,
+ * rather than the several filesystem calls of the TempDirectory constructor.
+ * (if the stock is ever exhausted, the caller creates its own, as usual.)
+ * 
+ * closing a pooled TempDirectory recycles it: if empty, it goes straight back into stock (unless full);
+ * otherwise it is swapped for a fresh one, i.e. trashed (see {@link TempDirectory#closeAsync()}) and replaced in the background.
+ * either way, as with any TempDirectory, it must not be used after close; though closing again (by any close method) does nothing.
+ * 
+ * an instance serves a single location (and prefix and suffix); closing it deletes its stock.
+ */
+public class TempDirectoryPool implements Closeable {
+	static final Logger LOG = LoggerFactory.getLogger(TempDirectoryPool.class);
+	
+	public final String PREFIX, SUFFIX;
+	public final File LOCATION;
+	/** how many ready directories to keep in stock */
+	public final int SIZE;
+	
+	final BlockingQueue<File> READY;
+	final AtomicBoolean REFILLING = new AtomicBoolean(false);
+	final ExecutorService REFILLER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread retVal = new Thread(r, "TempDirectoryPool refill");
+			retVal.setDaemon(true);
+			return retVal;
+		}
+	});
+	volatile boolean closed = false;
+	
+	public TempDirectoryPool(int size) {
+		this(TempDirectory.DEFAULT_PREFIX, TempDirectory.DEFAULT_SUFFIX, TempDirectory.DEFAULT_LOCATION, size);
+	}
+	public TempDirectoryPool(String prefix, String suffix, File location, int size) {
+		Preconditions.checkArgument(size > 0, "invalid size: %s", size);
+		PREFIX = prefix;
+		SUFFIX = suffix;
+		LOCATION = location;
+		SIZE = size;
+		READY = new ArrayBlockingQueue<File>(size);
+		refill();
+	}
+	
+	/**
+	 * a ready, empty TempDirectory; from stock if there is one, otherwise newly created.
+	 * closing it recycles it into this pool.
+	 */
+	public TempDirectory take() throws IOException {
+		Preconditions.checkState(! closed, "closed: %s", this);
+		File ready = READY.poll();
+		refill();
+		return new Pooled(null == ready ? new TempDirectory(PREFIX, SUFFIX, LOCATION) : ready, this);
+	}
+	
+	/** the number of ready directories in stock */
+	public int getReady() {
+		return READY.size();
+	}
+	
+	void recycle(Pooled td) throws IOException {
+		String[] contents = td.list();
+		if (null == contents) {
+			LOG.trace("recycled, but already gone: {}", td);
+		} else if (contents.length == 0 && ! closed && READY.offer(td)) {
+			LOG.trace("recycled: {}", td);
+		} else if (contents.length == 0) {
+			// surplus (the stock is full), and deleting an empty directory is as cheap as trashing it
+			if (! td.delete())
+				throw new IOException("could not delete: " + td);
+		} else if (closed) {
+			if (! DirectoryUtility.deleteDirectory(td))
+				throw new IOException("could not deleteDirectory: " + td);
+		} else {
+			LOG.trace("swapped: {}", td);
+			Reaper.getInstance().dispose(td);
+			refill();
+		}
+	}
+	
+	/** tops up the stock in the background, unless it is already being topped up */
+	void refill() {
+		if (closed || READY.remainingCapacity() == 0 || ! REFILLING.compareAndSet(false, true))
+			return;
+		REFILLER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (! closed && READY.remainingCapacity() > 0) {
+						File td = new TempDirectory(PREFIX, SUFFIX, LOCATION); // IOException
+						if (! READY.offer(td)) {
+							// the space was taken by a concurrent recycle; that's fine, but this one is surplus
+							if (! td.delete())
+								LOG.warn("unable to delete surplus {}", td);
+							break;
+						}
+					}
+				} catch (IOException e) {
+					LOG.warn("unable to refill {}: {}", TempDirectoryPool.this, e);
+					return;
+				} finally {
+					REFILLING.set(false);
+				}
+				// in case of a take between the last check and the reset
+				refill();
+			}
+		});
+	}
+	
+	/** stops refilling, and deletes the stock (not any directories still out) */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		REFILLER.shutdown();
+		try {
+			// so that no refill lands after the stock is deleted
+			REFILLER.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		boolean success = true;
+		for (File f; null != (f = READY.poll()); )
+			success &= DirectoryUtility.deleteDirectory(f);
+		if (! success)
+			throw new IOException("could not delete stock of " + this);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("TempDirectoryPool(%s*%s in %s: %s of %s ready)", PREFIX, SUFFIX, LOCATION, READY.size(), SIZE);
+	}
+	
+	/** a TempDirectory which recycles itself (once), rather than being deleted, upon any close */
+	static class Pooled extends TempDirectory {
+		/** default */
+		private static final long serialVersionUID = 1;
+		
+		final transient TempDirectoryPool POOL;
+		/** so that closing twice can't put the same directory into stock twice */
+		final transient AtomicBoolean RECYCLED = new AtomicBoolean(false);
+		Pooled(File dir, TempDirectoryPool pool) {
+			super(dir);
+			POOL = pool;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (RECYCLED.compareAndSet(false, true))
+				POOL.recycle(this);
+		}
+		/** recycles, as {@link #close()}; a dirty directory is trashed regardless */
+		@Override
+		public void close(ForkJoinPool pool) throws IOException {
+			close();
+		}
+		/** recycles, as {@link #close()} */
+		@Override
+		public void closeAsync() throws IOException {
+			close();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.fwb.file.dir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fwb.file.dir.DirectoryUtility.DirectoryFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ForwardingMap;
+
+/**
+ * a {@link DirectoryFunction} whose {@link #getDirectoryMap() directory map} is cached,
+ * rather than re-listed upon every call, and kept current by a {@link WatchService}
+ * (or, where the filesystem offers none, by re-listing every {@link #POLL_MILLIS}).
+ * so lookups ({@code containsKey}, {@code get}) cost a hash lookup, not a filesystem call.
+ * 
+ * n.b. the map is eventually consistent: a change shows once its event is delivered (or the next poll),
+ * not necessarily by the time the filesystem call that made it returns.
+ */
+public class WatchedDirectory extends DirectoryFunction implements Closeable {
+	static final Logger LOG = LoggerFactory.getLogger(WatchedDirectory.class);
+	
+	/** the polling interval, where a WatchService is unavailable (or not wanted) */
+	public static final long POLL_MILLIS = Long.getLong("org.fwb.dir.WatchedDirectory.POLL_MILLIS", 1000);
+	
+	static final ThreadFactory DAEMON = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread retVal = new Thread(r, "WatchedDirectory");
+			retVal.setDaemon(true);
+			return retVal;
+		}
+	};
+	
+	final ConcurrentMap<String, File> FILES = new ConcurrentHashMap<String, File>();
+	final Map<String, File> VIEW = new ForwardingMap<String, File>() {
+		final Map<String, File> DELEGATE = Collections.unmodifiableMap(FILES);
+		@Override
+		protected Map<String, File> delegate() {
+			return DELEGATE;
+		}
+		@Override
+		public boolean containsKey(Object key) {
+			HITS.incrementAndGet();
+			return super.containsKey(key);
+		}
+		@Override
+		public File get(Object key) {
+			HITS.incrementAndGet();
+			return super.get(key);
+		}
+	};
+	final AtomicLong
+		HITS = new AtomicLong(),
+		EVENTS = new AtomicLong(),
+		LISTINGS = new AtomicLong();
+	
+	/** null if polling */
+	final WatchService WATCHER;
+	final ScheduledExecutorService POLLER;
+	
+	public WatchedDirectory(File parent) throws IOException {
+		this(parent, true);
+	}
+	/**
+	 * @param watch whether to use a WatchService (if available), rather than polling;
+	 * e.g. false for network filesystems, whose remote changes a WatchService may never see
+	 */
+	public WatchedDirectory(File parent, boolean watch) throws IOException {
+		super(parent);
+		WatchService watcher = null;
+		if (watch)
+			try {
+				watcher = PARENT.toPath().getFileSystem().newWatchService();
+				// before listing, so that no change is missed in between
+				PARENT.toPath().register(watcher,
+						StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+			} catch (UnsupportedOperationException e) {
+				LOG.debug("no WatchService for {}, polling: {}", PARENT, e);
+				watcher = close(watcher);
+			} catch (IOException e) {
+				LOG.debug("unable to watch {}, polling: {}", PARENT, e);
+				watcher = close(watcher);
+			}
+		WATCHER = watcher;
+		relist();
+		POLLER = Executors.newSingleThreadScheduledExecutor(DAEMON);
+		if (null == WATCHER)
+			POLLER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					relist();
+				}
+			}, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+		else
+			POLLER.execute(new Runnable() {
+				@Override
+				public void run() {
+					watch();
+				}
+			});
+	}
+	
+	/** the (live, read-only) map of this directory's children by name */
+	@Override
+	public Map<String, File> getDirectoryMap() {
+		return VIEW;
+	}
+	
+	/** lookups served from the cache without a listing, i.e. filesystem calls saved */
+	public long getHits() {
+		return HITS.get();
+	}
+	/** changes applied incrementally, as reported by the WatchService */
+	public long getEvents() {
+		return EVENTS.get();
+	}
+	/** full listings of the directory (the initial one, each poll and each overflow) */
+	public long getListings() {
+		return LISTINGS.get();
+	}
+	/** times the cache was invalidated (in part, by an event, or in whole, by a listing) */
+	public long getInvalidations() {
+		return EVENTS.get() + LISTINGS.get();
+	}
+	/**
+	 * the fraction of reads of the directory served by the cache, i.e. hits per (hits + listings);
+	 * NaN before any
+	 */
+	public double getHitRate() {
+		long hits = HITS.get(), total = hits + LISTINGS.get();
+		return 0 == total ? Double.NaN : (double) hits / total;
+	}
+	/** whether changes are watched for, rather than polled */
+	public boolean isWatched() {
+		return null != WATCHER;
+	}
+	
+	/** re-lists the directory, replacing the cached children */
+	void relist() {
+		LISTINGS.incrementAndGet();
+		String[] names = PARENT.list();
+		Set<String> current = null == names
+				? Collections.<String>emptySet()
+				: new HashSet<String>(Arrays.asList(names));
+		FILES.keySet().retainAll(current);
+		for (String name : current)
+			if (! FILES.containsKey(name))
+				FILES.putIfAbsent(name, apply(name));
+	}
+	
+	/** applies the WatchService's events, until closed (or the directory is gone) */
+	void watch() {
+		try {
+			for (boolean valid = true; valid; ) {
+				WatchKey key = WATCHER.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+						LOG.trace("overflow, re-listing {}", PARENT);
+						relist();
+						continue;
+					}
+					EVENTS.incrementAndGet();
+					String name = ((Path) event.context()).toString();
+					if (StandardWatchEventKinds.ENTRY_CREATE == event.kind())
+						FILES.putIfAbsent(name, apply(name));
+					else
+						FILES.remove(name);
+				}
+				valid = key.reset();
+			}
+			LOG.trace("no longer watching {}, which is gone", PARENT);
+			FILES.clear();
+		} catch (ClosedWatchServiceException e) {
+			LOG.trace("closed {}", this);
+		} catch (InterruptedException e) {
+			LOG.trace("interrupted {}", this);
+		}
+	}
+	
+	/** stops watching (or polling); the map is left as it was */
+	@Override
+	public void close() throws IOException {
+		POLLER.shutdownNow();
+		if (null != WATCHER)
+			WATCHER.close();
+	}
+	
+	/** closes quietly, since it's being discarded anyway */
+	static WatchService close(WatchService ws) {
+		if (null != ws)
+			try {
+				ws.close();
+			} catch (IOException e) {
+				LOG.trace("unable to close {}: {}", ws, e);
+			}
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("WatchedDirectory(%s: %s children, %s hits, %s events, %s listings, %.3f hit rate)",
+				PARENT, FILES.size(), HITS.get(), EVENTS.get(), LISTINGS.get(), getHitRate());
+	}
+}
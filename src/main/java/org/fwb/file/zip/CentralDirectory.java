@@ -0,0 +1,370 @@
+package org.fwb.file.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the parsed central directory of a zip File:
+ * every entry's metadata, and where in the archive its (compressed) data lives.
+ * 
+ * unlike {@link java.util.zip.ZipFile}, this exposes the raw offsets,
+ * so that an entry's compressed bytes can be copied (e.g. by {@link ZipWriter#putRaw})
+ * without inflating them.
+ * 
+ * an instance is immutable (but for lazily-resolved data offsets), and safe to share across threads.
+ * offsets are of the File, i.e. corrected (as ZipFile's are) for any data prepended to the archive,
+ * e.g. of a self-extracting archive, or a jar with a launcher script.
+ * it holds no open handle to the zip File.
+ */
+public class CentralDirectory {
+	static final Logger LOG = LoggerFactory.getLogger(CentralDirectory.class);
+	
+	static final int
+		END_SIZE = 22,
+		ZIP64_LOC_SIZE = 20,
+		CEN_SIZE = 46,
+		LOC_SIZE = 30,
+		MAX_COMMENT = 0xFFFF,
+		FLAG_ENCRYPTED = 0x01;
+	
+	public final File ZIP;
+	/** by name; where names repeat, the last */
+	final Map<String, Record> RECORDS;
+	/** all, in central-directory order */
+	final List<Record> ALL;
+	
+	CentralDirectory(File zip, List<Record> all) {
+		ZIP = zip;
+		ALL = Collections.unmodifiableList(all);
+		Map<String, Record> records = new LinkedHashMap<String, Record>();
+		for (Record r : all)
+			records.put(r.ENTRY.getName(), r);
+		RECORDS = Collections.unmodifiableMap(records);
+	}
+	
+	/** the Record of the named entry (the last, if repeated), or null if there is none */
+	public Record get(String name) {
+		return RECORDS.get(name);
+	}
+	/** all entry names, in central-directory order */
+	public Set<String> names() {
+		return RECORDS.keySet();
+	}
+	/**
+	 * all Records, in central-directory order.
+	 * where an archive (unusually) holds several entries of the same name, this includes them all.
+	 */
+	public List<Record> records() {
+		return ALL;
+	}
+	/** the number of distinct entry names */
+	public int size() {
+		return RECORDS.size();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("CentralDirectory(%s: %s entries)", ZIP, size());
+	}
+	
+	/**
+	 * reads and parses the central directory of the given zip File.
+	 * 
+	 * @throws ZipException if the File is not a (supported) zip archive
+	 */
+	public static CentralDirectory read(File zip) throws IOException {
+		LOG.trace("start read({})", zip);
+		FileChannel ch = FileChannel.open(zip.toPath(), StandardOpenOption.READ); try {
+			long length = ch.size();
+			
+			// the end record sits at the very end, but for a (variable-length) comment
+			int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT);
+			ByteBuffer tail = readFully(ch, length - tailSize, tailSize);
+			int end = -1;
+			for (int i = tailSize - END_SIZE; i >= 0; --i)
+				if (ZipWriter.ENDSIG == tail.getInt(i)
+						&& i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+					end = i;
+					break;
+				}
+			if (end < 0)
+				throw new ZipException("no end of central directory: " + zip);
+			
+			long count = tail.getShort(end + 10) & 0xFFFF;
+			long cenSize = tail.getInt(end + 12) & ZipWriter.ZIP64_MAGICVAL;
+			long cenStart = tail.getInt(end + 16) & ZipWriter.ZIP64_MAGICVAL;
+			long endPos = length - tailSize + end;
+			
+			int loc64 = end - ZIP64_LOC_SIZE;
+			if (loc64 >= 0 && ZipWriter.ZIP64_LOCSIG == tail.getInt(loc64)) {
+				endPos = tail.getLong(loc64 + 8);
+				ByteBuffer end64 = readFully(ch, endPos, 56);
+				if (ZipWriter.ZIP64_ENDSIG != end64.getInt(0))
+					throw new ZipException("corrupt zip64 end of central directory: " + zip);
+				count = end64.getLong(32);
+				cenSize = end64.getLong(40);
+				cenStart = end64.getLong(48);
+			}
+			if (cenSize > Integer.MAX_VALUE)
+				throw new ZipException("central directory too large: " + zip);
+			// as ZipFile: the central directory ends where the end record starts, so anything more before it is a prefix
+			long prefix = (endPos - cenSize) - cenStart;
+			if (prefix < 0)
+				throw new ZipException("bad central directory offset: " + zip);
+			if (prefix > 0)
+				LOG.trace("{} bytes prepended to {}", prefix, zip);
+			
+			ByteBuffer cen = readFully(ch, cenStart + prefix, (int) cenSize);
+			List<Record> records = new ArrayList<Record>((int) Math.min(count, Integer.MAX_VALUE));
+			for (int pos = 0, i = 0; i < count; ++i) {
+				if (ZipWriter.CENSIG != cen.getInt(pos))
+					throw new ZipException(String.format("corrupt central directory record %s: %s", i, zip));
+				records.add(new Record(cen, pos, prefix));
+				pos += CEN_SIZE
+						+ (cen.getShort(pos + 28) & 0xFFFF)
+						+ (cen.getShort(pos + 30) & 0xFFFF)
+						+ (cen.getShort(pos + 32) & 0xFFFF);
+			}
+			
+			CentralDirectory retVal = new CentralDirectory(zip, records);
+			LOG.trace("end read({}): {}", zip, retVal);
+			return retVal;
+		} finally {
+			ch.close();
+		}
+	}
+	
+	static ByteBuffer readFully(FileChannel ch, long position, int size) throws IOException {
+		ByteBuffer retVal = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (retVal.hasRemaining())
+			if (ch.read(retVal, position + retVal.position()) < 0)
+				throw new ZipException(String.format("truncated zip: %s bytes at %s", size, position));
+		return retVal;
+	}
+	
+	/**
+	 * a single entry of the central directory.
+	 * its {@link #ENTRY} carries name, time, method, CRC and sizes.
+	 * n.b. ENTRY is shared; copy it (with {@link ZipEntry#ZipEntry(ZipEntry)}) before modifying it.
+	 */
+	public static class Record {
+		public final ZipEntry ENTRY;
+		/** the MS-DOS date/time, as stored (i.e. in 2-second resolution) */
+		final long DOSTIME;
+		/** the compression method, which ENTRY only carries if it is STORED or DEFLATED */
+		final int FLAG, METHOD;
+		/** the offset of the entry's local header (in the File, i.e. including any prefix) */
+		final long OFFSET;
+		/** the offset of the entry's data, once resolved from its local header */
+		volatile long dataOffset = -1;
+		
+		/** @param prefix the length of any data prepended to the archive, by which its offsets are off */
+		Record(ByteBuffer cen, int pos, long prefix) throws ZipException {
+			FLAG = cen.getShort(pos + 8) & 0xFFFF;
+			METHOD = cen.getShort(pos + 10) & 0xFFFF;
+			DOSTIME = cen.getInt(pos + 12) & ZipWriter.ZIP64_MAGICVAL;
+			long crc = cen.getInt(pos + 16) & ZipWriter.ZIP64_MAGICVAL;
+			long csize = cen.getInt(pos + 20) & ZipWriter.ZIP64_MAGICVAL;
+			long size = cen.getInt(pos + 24) & ZipWriter.ZIP64_MAGICVAL;
+			int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+			int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+			long offset = cen.getInt(pos + 42) & ZipWriter.ZIP64_MAGICVAL;
+			
+			byte[] name = new byte[nameLength];
+			for (int i = 0; i < nameLength; ++i)
+				name[i] = cen.get(pos + CEN_SIZE + i);
+			
+			// zip64: whichever of the fields overflowed are in the extra field, in this order
+			for (int x = pos + CEN_SIZE + nameLength, xEnd = x + extraLength; x + 4 <= xEnd; ) {
+				int id = cen.getShort(x) & 0xFFFF, len = cen.getShort(x + 2) & 0xFFFF;
+				if (ZipWriter.ZIP64_EXTID == id) {
+					int f = x + 4;
+					if (ZipWriter.ZIP64_MAGICVAL == size) {
+						size = cen.getLong(f);
+						f += 8;
+					}
+					if (ZipWriter.ZIP64_MAGICVAL == csize) {
+						csize = cen.getLong(f);
+						f += 8;
+					}
+					if (ZipWriter.ZIP64_MAGICVAL == offset)
+						offset = cen.getLong(f);
+				}
+				x += 4 + len;
+			}
+			
+			ENTRY = new ZipEntry(new String(name, StandardCharsets.UTF_8));
+			if (ZipEntry.STORED == METHOD || ZipEntry.DEFLATED == METHOD)
+				ENTRY.setMethod(METHOD);
+			ENTRY.setCrc(crc);
+			ENTRY.setSize(size);
+			ENTRY.setCompressedSize(csize);
+			long time = ZipWriter.javaTime(DOSTIME);
+			if (-1 != time)
+				ENTRY.setTime(time);
+			OFFSET = offset + prefix;
+		}
+		
+		/**
+		 * whether the raw data of this entry can be copied as-is into another archive
+		 * (i.e. it is stored or deflated, and not encrypted)
+		 */
+		public boolean isCopyable() {
+			return 0 == (FLAG & FLAG_ENCRYPTED)
+					&& (ZipEntry.STORED == METHOD || ZipEntry.DEFLATED == METHOD);
+		}
+		
+		/**
+		 * the offset, in the archive, of this entry's (compressed) data.
+		 * the first call reads the entry's local header (for the length of its variable fields).
+		 * 
+		 * @param ch a channel open upon the archive
+		 */
+		public long getDataOffset(FileChannel ch) throws IOException {
+			long retVal = dataOffset;
+			if (retVal < 0) {
+				ByteBuffer loc = readFully(ch, OFFSET, LOC_SIZE);
+				if (ZipWriter.LOCSIG != loc.getInt(0))
+					throw new ZipException("corrupt local header: " + ENTRY.getName());
+				retVal = dataOffset = OFFSET + LOC_SIZE
+						+ (loc.getShort(26) & 0xFFFF)
+						+ (loc.getShort(28) & 0xFFFF);
+			}
+			return retVal;
+		}
+		
+		/**
+		 * streams this entry's content (inflated, if need be) out of the archive.
+		 * reads are positional, so many streams may share one channel concurrently.
+		 * 
+		 * note: closing the stream does NOT close the channel
+		 * 
+		 * @param ch a channel open upon the archive
+		 * @throws ZipException if the entry is not {@link #isCopyable() stored or deflated}
+		 */
+		public InputStream open(FileChannel ch) throws IOException {
+			return open(ch, null);
+		}
+		/**
+		 * as {@link #open(FileChannel)}, but inflating (if need be) with the given Inflater,
+		 * which must be raw ("nowrap") and reset, and which the stream does NOT end upon close.
+		 * 
+		 * @param inflater if null, the stream uses (and ends) its own
+		 */
+		public InputStream open(FileChannel ch, Inflater inflater) throws IOException {
+			if (! isCopyable())
+				throw new ZipException(String.format("unsupported method %s: %s", METHOD, ENTRY.getName()));
+			InputStream raw = new ChannelSliceInputStream(ch, getDataOffset(ch), ENTRY.getCompressedSize());
+			return ZipEntry.STORED == METHOD
+					? raw
+					: new RawInflaterInputStream(raw, ENTRY.getSize(), inflater);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Record(%s @%s)", ENTRY.getName(), OFFSET);
+		}
+	}
+	
+	/**
+	 * a bounded region of a FileChannel, read positionally (without moving the channel's own position).
+	 */
+	static class ChannelSliceInputStream extends InputStream {
+		final FileChannel CH;
+		final long END;
+		long position;
+		ChannelSliceInputStream(FileChannel ch, long start, long length) {
+			CH = ch;
+			position = start;
+			END = start + length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return -1 == read(b, 0, 1) ? -1 : b[0] & 0xFF;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= END)
+				return -1;
+			ByteBuffer bb = ByteBuffer.wrap(b, off, (int) Math.min(len, END - position));
+			int n = CH.read(bb, position);
+			if (n < 0)
+				throw new ZipException("truncated entry data at " + position);
+			position += n;
+			return n;
+		}
+		@Override
+		public long skip(long n) {
+			long retVal = Math.max(0, Math.min(n, END - position));
+			position += retVal;
+			return retVal;
+		}
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, END - position);
+		}
+	}
+	
+	/**
+	 * inflates raw ("nowrap") deflate data, as {@link java.util.zip.ZipFile} does,
+	 * and ends its Inflater upon close, if it is its own.
+	 */
+	static class RawInflaterInputStream extends InflaterInputStream {
+		final long SIZE;
+		final boolean OWN;
+		boolean eof = false;
+		RawInflaterInputStream(InputStream raw, long size, Inflater inflater) {
+			super(raw, null == inflater ? new Inflater(true) : inflater, (int) Math.max(64, Math.min(8192, size)));
+			SIZE = size;
+			OWN = null == inflater;
+		}
+		
+		/** supplies the single "dummy" byte the nowrap Inflater may need past the end of its input */
+		@Override
+		protected void fill() throws IOException {
+			if (eof)
+				throw new ZipException("unexpected end of deflated data");
+			len = in.read(buf, 0, buf.length);
+			if (-1 == len) {
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+		@Override
+		public int available() throws IOException {
+			return inf.finished() ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(1, SIZE - inf.getBytesWritten()));
+		}
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (OWN)
+					inf.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.fwb.file.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.fwb.file.FileUtil;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+/**
+ * decides, per leaf, how it is to be compressed into a zip:
+ * stored as-is, or deflated at one of a few levels.
+ * 
+ * e.g. already-compressed content (images, archives) gains ~nothing from deflate,
+ * so the CPU is better spent elsewhere and the leaf is better {@link Compression#STORED}.
+ * 
+ * policies compose by delegation: each of the classes below decides what it can,
+ * and defers to an "otherwise" policy for the rest.
+ * any {@link Compression} is itself the trivial (constant) policy.
+ */
+public interface CompressionPolicy extends Function<File, CompressionPolicy.Compression> {
+	/**
+	 * the default policy of this package:
+	 * stores {@link ExtensionPolicy#COMPRESSED known-compressed} and {@link SizePolicy#TINY tiny} leaves,
+	 * and those whose first block looks random; deflates the rest at the default level.
+	 */
+	CompressionPolicy ADAPTIVE = new ExtensionPolicy(ExtensionPolicy.COMPRESSED, Compression.STORED,
+			new SizePolicy(SizePolicy.TINY, Compression.STORED,
+					new EntropyPolicy(EntropyPolicy.RANDOM, Compression.STORED, Compression.DEFAULT)));
+	
+	/** the ways in which a leaf may be added to a zip */
+	enum Compression implements CompressionPolicy {
+		STORED(Deflater.NO_COMPRESSION),
+		FAST(Deflater.BEST_SPEED),
+		DEFAULT(Deflater.DEFAULT_COMPRESSION),
+		MAX(Deflater.BEST_COMPRESSION);
+		
+		/** the {@link Deflater} level; meaningless for {@link #STORED} */
+		public final int LEVEL;
+		Compression(int level) {
+			LEVEL = level;
+		}
+		
+		/** always this */
+		@Override
+		public Compression apply(File leaf) {
+			return this;
+		}
+	}
+	
+	/**
+	 * decides by {@link FileUtil#getExtension file extension} (case-insensitive).
+	 */
+	class ExtensionPolicy implements CompressionPolicy {
+		/** extensions of commonly already-compressed formats */
+		public static final Set<String> COMPRESSED = ImmutableSet.of(
+				"jpg", "jpeg", "png", "gif", "webp", "heic",
+				"mp3", "m4a", "ogg", "flac", "mp4", "m4v", "mkv", "mov", "avi", "webm",
+				"zip", "jar", "war", "ear", "apk", "docx", "xlsx", "pptx", "odt", "ods",
+				"gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "br", "woff", "woff2");
+		
+		final Set<String> EXTENSIONS;
+		final Compression MATCH;
+		final CompressionPolicy OTHERWISE;
+		/**
+		 * @param extensions lower-case, without the dot
+		 * @param match the Compression for leaves with any of those extensions
+		 * @param otherwise decides for all other leaves
+		 */
+		public ExtensionPolicy(Set<String> extensions, Compression match, CompressionPolicy otherwise) {
+			EXTENSIONS = extensions;
+			MATCH = match;
+			OTHERWISE = otherwise;
+		}
+		
+		@Override
+		public Compression apply(File leaf) {
+			String ext = FileUtil.getExtension(leaf.getName());
+			return null != ext && EXTENSIONS.contains(ext.toLowerCase(Locale.ROOT))
+					? MATCH
+					: OTHERWISE.apply(leaf);
+		}
+	}
+	
+	/**
+	 * decides by {@link File#length()}, relative to a threshold.
+	 */
+	class SizePolicy implements CompressionPolicy {
+		/** below this, deflate's own overhead outweighs what it could save */
+		public static final long TINY = 64;
+		
+		final long THRESHOLD;
+		final CompressionPolicy BELOW, OTHERWISE;
+		public SizePolicy(long threshold, CompressionPolicy below, CompressionPolicy otherwise) {
+			THRESHOLD = threshold;
+			BELOW = below;
+			OTHERWISE = otherwise;
+		}
+		
+		@Override
+		public Compression apply(File leaf) {
+			return leaf.length() < THRESHOLD
+					? BELOW.apply(leaf)
+					: OTHERWISE.apply(leaf);
+		}
+	}
+	
+	/**
+	 * decides by the (order-0, Shannon) entropy of a sample: the leaf's first {@link #SAMPLE} bytes.
+	 * content sampling near 8 bits/byte is random to deflate, i.e. incompressible.
+	 */
+	class EntropyPolicy implements CompressionPolicy {
+		/** in bits per byte; compressed and encrypted content samples above this */
+		public static final double RANDOM = 7.5;
+		static final int SAMPLE = 4096;
+		
+		final double THRESHOLD;
+		final Compression ABOVE;
+		final CompressionPolicy OTHERWISE;
+		/**
+		 * @param threshold in bits per byte, [0, 8]
+		 * @param above the Compression for leaves sampling above the threshold
+		 * @param otherwise decides for all other leaves
+		 */
+		public EntropyPolicy(double threshold, Compression above, CompressionPolicy otherwise) {
+			Preconditions.checkArgument(0 <= threshold && threshold <= 8,
+					"entropy threshold %s not in [0, 8] bits/byte", threshold);
+			THRESHOLD = threshold;
+			ABOVE = above;
+			OTHERWISE = otherwise;
+		}
+		
+		@Override
+		public Compression apply(File leaf) {
+			byte[] sample = new byte[SAMPLE];
+			int n;
+			try {
+				InputStream is = new FileInputStream(leaf); try {
+					n = ByteStreams.read(is, sample, 0, SAMPLE);
+				} finally {
+					is.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(String.format("IOE sampling %s", leaf), e);
+			}
+			return entropy(sample, n) > THRESHOLD
+					? ABOVE
+					: OTHERWISE.apply(leaf);
+		}
+		
+		/** in bits per byte; zero for no bytes */
+		static double entropy(byte[] b, int len) {
+			int[] counts = new int[256];
+			for (int i = 0; i < len; ++i)
+				++counts[b[i] & 0xFF];
+			double retVal = 0;
+			for (int c : counts)
+				if (c > 0) {
+					double p = (double) c / len;
+					retVal -= p * Math.log(p);
+				}
+			return retVal / Math.log(2);
+		}
+	}
+}
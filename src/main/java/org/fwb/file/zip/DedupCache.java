@@ -0,0 +1,214 @@
+package org.fwb.file.zip;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * a cache of compressed leaf content, keyed by a hash of the (uncompressed) content and how it was compressed,
+ * so that byte-identical leaves are compressed only once: within one zip, and across zips sharing the cache.
+ * every duplicate reuses the compressed bytes (and CRC) of the first.
+ * 
+ * concurrent requests for the same content wait for a single compression, rather than each doing their own.
+ * the cache is bounded by the total (compressed) bytes it holds; the least recently used blobs are evicted first.
+ * 
+ * an instance accumulates a {@link Report} across all zips which use it; each zip also reports its own.
+ * 
+ * @see ZipUtility#zip(java.io.OutputStream, java.util.concurrent.ExecutorService, CompressionPolicy, DedupCache, java.io.File...)
+ */
+public class DedupCache {
+	static final Logger LOG = LoggerFactory.getLogger(DedupCache.class);
+	
+	static final HashFunction HASH = Hashing.sha256();
+	
+	/** the default bound, in compressed bytes */
+	public static final long DEFAULT_MAX_BYTES = Long.getLong("org.fwb.dir.DedupCache.MAX_BYTES", 64 << 20);
+	
+	/** the most (compressed) bytes to keep cached */
+	public final long MAX_BYTES;
+	/** accumulated across all zips using this cache */
+	public final Report TOTAL = new Report();
+	
+	final Map<Key, Blob> CACHE = new LinkedHashMap<Key, Blob>(16, 0.75f, true);
+	final ConcurrentMap<Key, FutureTask<Blob>> IN_FLIGHT = new ConcurrentHashMap<Key, FutureTask<Blob>>();
+	long bytes = 0;
+	
+	public DedupCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+	public DedupCache(long maxBytes) {
+		Preconditions.checkArgument(maxBytes >= 0, "invalid maxBytes: %s", maxBytes);
+		MAX_BYTES = maxBytes;
+	}
+	
+	/**
+	 * the Blob for the given key: cached, or being compressed by another thread, or else compressed now.
+	 * records a duplicate (in both the given report and {@link #TOTAL}) unless it was compressed now.
+	 */
+	Blob get(Key key, Callable<Blob> compress, Report report) throws IOException {
+		Blob retVal;
+		synchronized (this) {
+			retVal = CACHE.get(key);
+		}
+		if (null == retVal) {
+			FutureTask<Blob> task = new FutureTask<Blob>(compress);
+			FutureTask<Blob> other = IN_FLIGHT.putIfAbsent(key, task);
+			if (null == other) {
+				try {
+					task.run();
+					retVal = ZipUtility.await(task);
+					put(key, retVal);
+				} finally {
+					IN_FLIGHT.remove(key, task);
+				}
+				report.record(retVal, false);
+				TOTAL.record(retVal, false);
+				return retVal;
+			}
+			retVal = ZipUtility.await(other);
+		}
+		LOG.trace("duplicate: {}", key);
+		report.record(retVal, true);
+		TOTAL.record(retVal, true);
+		return retVal;
+	}
+	
+	synchronized void put(Key key, Blob value) {
+		Blob previous = CACHE.put(key, value);
+		if (null != previous)
+			bytes -= previous.DATA.length;
+		bytes += value.DATA.length;
+		
+		// evict the least recently used
+		for (Iterator<Blob> it = CACHE.values().iterator(); bytes > MAX_BYTES && it.hasNext(); ) {
+			bytes -= it.next().DATA.length;
+			it.remove();
+		}
+	}
+	
+	/** forgets all cached blobs (but not the {@link #TOTAL} report) */
+	public synchronized void clear() {
+		CACHE.clear();
+		bytes = 0;
+	}
+	/** the number of blobs currently cached */
+	public synchronized int size() {
+		return CACHE.size();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("DedupCache(%s blobs, %s of %s bytes; %s)", CACHE.size(), bytes, MAX_BYTES, TOTAL);
+	}
+	
+	/** identifies a blob: the content's hash and length, and how it was compressed */
+	static class Key {
+		final HashCode HASH;
+		final long LENGTH;
+		final int METHOD, LEVEL;
+		Key(HashCode hash, long length, int method, int level) {
+			HASH = hash;
+			LENGTH = length;
+			METHOD = method;
+			LEVEL = level;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (! (o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return HASH.equals(k.HASH) && LENGTH == k.LENGTH && METHOD == k.METHOD && LEVEL == k.LEVEL;
+		}
+		@Override
+		public int hashCode() {
+			return HASH.asInt();
+		}
+		@Override
+		public String toString() {
+			return String.format("%s (%s bytes, method %s, level %s)", HASH, LENGTH, METHOD, LEVEL);
+		}
+	}
+	
+	/** compressed content, and what a ZipEntry needs to describe it */
+	static class Blob {
+		final int METHOD;
+		final long CRC, SIZE;
+		/** exactly the compressed bytes */
+		final byte[] DATA;
+		/** how long compressing took */
+		final long NANOS;
+		Blob(int method, long crc, long size, byte[] data, long nanos) {
+			METHOD = method;
+			CRC = crc;
+			SIZE = size;
+			DATA = data;
+			NANOS = nanos;
+		}
+	}
+	
+	/**
+	 * what deduplication saved: leaves seen, duplicates among them,
+	 * and the (uncompressed) bytes and compression time those duplicates did not cost,
+	 * against the time spent hashing every leaf.
+	 */
+	public static class Report {
+		final AtomicLong
+			LEAVES = new AtomicLong(),
+			DUPLICATES = new AtomicLong(),
+			BYTES_SAVED = new AtomicLong(),
+			NANOS_SAVED = new AtomicLong(),
+			HASH_NANOS = new AtomicLong();
+		
+		void record(Blob blob, boolean duplicate) {
+			LEAVES.incrementAndGet();
+			if (duplicate) {
+				DUPLICATES.incrementAndGet();
+				BYTES_SAVED.addAndGet(blob.SIZE);
+				NANOS_SAVED.addAndGet(blob.NANOS);
+			}
+		}
+		
+		/** the leaves considered for deduplication (those small enough to be compressed into memory) */
+		public long getLeaves() {
+			return LEAVES.get();
+		}
+		/** the leaves whose compressed bytes were reused */
+		public long getDuplicates() {
+			return DUPLICATES.get();
+		}
+		/** the uncompressed bytes not compressed, thanks to reuse */
+		public long getBytesSaved() {
+			return BYTES_SAVED.get();
+		}
+		/** the compression (CPU) time not spent, thanks to reuse, in nanoseconds */
+		public long getNanosSaved() {
+			return NANOS_SAVED.get();
+		}
+		/** the time spent hashing, in nanoseconds */
+		public long getHashNanos() {
+			return HASH_NANOS.get();
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s duplicates of %s leaves, saved %s bytes and %sms compressing, spent %sms hashing",
+					DUPLICATES.get(), LEAVES.get(), BYTES_SAVED.get(),
+					NANOS_SAVED.get() / 1000000, HASH_NANOS.get() / 1000000);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package org.fwb.file.zip;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * a minimal, thread-safe pool of reusable objects (e.g. native Deflaters, or buffers).
+ * borrowing never blocks: an empty pool creates a new object,
+ * and a full pool destroys what is returned to it.
+ */
+abstract class Pool<T> {
+	final BlockingQueue<T> IDLE;
+	Pool(int capacity) {
+		IDLE = new ArrayBlockingQueue<T>(Math.max(1, capacity));
+	}
+	
+	abstract T create();
+	/** readies a returned object for its next borrower */
+	void reset(T t) { }
+	/** releases the resources of an object no longer pooled */
+	void destroy(T t) { }
+	
+	T borrow() {
+		T retVal = IDLE.poll();
+		return null == retVal ? create() : retVal;
+	}
+	void release(T t) {
+		reset(t);
+		if (! IDLE.offer(t))
+			destroy(t);
+	}
+	
+	/** destroys every idle object */
+	void clear() {
+		for (T t; null != (t = IDLE.poll()); )
+			destroy(t);
+	}
+}
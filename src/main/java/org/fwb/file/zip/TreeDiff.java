@@ -0,0 +1,281 @@
+package org.fwb.file.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * what differs between two trees of leaves, either of which may be a directory or a zip
+ * (read through its {@link CentralDirectory}, i.e. without inflating anything).
+ * 
+ * leaves of the same name are compared cheaply first:
+ * differing sizes are a change; otherwise equal CRCs (zip vs zip) or modification times
+ * (to the 2 second precision of a zip, if either side is one) mean no change.
+ * only the remaining, ambiguous, pairs have their content hashed (CRC-32, as a zip entry),
+ * in parallel upon the given executor.
+ * n.b. so, as for {@link ZipUtility#zipIncremental}, a change preserving both size and time goes unseen.
+ * 
+ * as in a zip, only leaves count: empty directories are ignored.
+ */
+public class TreeDiff {
+	static final Logger LOG = LoggerFactory.getLogger(TreeDiff.class);
+	
+	public enum Kind {
+		/** only in the right tree */
+		ADDED,
+		/** only in the left tree */
+		REMOVED,
+		/** in both, with different content */
+		CHANGED
+	}
+	
+	/** receives each difference, upon the calling thread, in order of name (except those found by hashing, which follow) */
+	public interface Listener {
+		void diff(Kind kind, String name);
+	}
+	
+	@Deprecated private TreeDiff() {}
+	
+	/**
+	 * diffs two directories or zips, as named from their roots
+	 * (i.e. a zip of a directory's contents, as by {@code ZipUtility.zip(zip, dir.listFiles())}, matches the directory)
+	 */
+	public static Result diff(File left, File right, ExecutorService executor, Listener listener) throws IOException {
+		return diff(Tree.of(left), Tree.of(right), executor, listener);
+	}
+	public static Result diff(Tree left, Tree right, ExecutorService executor, Listener listener) throws IOException {
+		LOG.trace("start diff({}, {})", left, right);
+		Result retVal = new Result();
+		List<Future<Boolean>> hashes = new ArrayList<Future<Boolean>>();
+		final List<String> hashed = new ArrayList<String>();
+		
+		Iterator<Item>
+			l = left.ITEMS.values().iterator(),
+			r = right.ITEMS.values().iterator();
+		Item a = next(l), b = next(r);
+		while (null != a || null != b) {
+			int c = null == a ? 1 : null == b ? -1 : a.NAME.compareTo(b.NAME);
+			if (c < 0) {
+				retVal.emit(listener, Kind.REMOVED, a.NAME);
+				a = next(l);
+			} else if (c > 0) {
+				retVal.emit(listener, Kind.ADDED, b.NAME);
+				b = next(r);
+			} else {
+				Boolean same = compare(a, b);
+				if (null == same) {
+					hashes.add(executor.submit(sameContent(a, b)));
+					hashed.add(a.NAME);
+				} else if (same) {
+					++retVal.unchanged;
+				} else {
+					retVal.emit(listener, Kind.CHANGED, a.NAME);
+				}
+				a = next(l);
+				b = next(r);
+			}
+		}
+		
+		retVal.hashed = hashes.size();
+		for (int i = 0; i < hashes.size(); ++i)
+			if (ZipUtility.await(hashes.get(i)))
+				++retVal.unchanged;
+			else
+				retVal.emit(listener, Kind.CHANGED, hashed.get(i));
+		
+		LOG.trace("end diff({}, {}): {}", left, right, retVal);
+		return retVal;
+	}
+	
+	static Item next(Iterator<Item> i) {
+		return i.hasNext() ? i.next() : null;
+	}
+	
+	/** whether the items are the same, or null if that can't be told without hashing */
+	static Boolean compare(Item a, Item b) {
+		if (a.SIZE != b.SIZE)
+			return false;
+		if (a.hasCrc() && b.hasCrc())
+			return a.crc == b.crc;
+		if (a.isZipped() || b.isZipped()) {
+			if (a.dosTime() == b.dosTime())
+				return true;
+		} else if (a.TIME == b.TIME) {
+			return true;
+		}
+		return null;
+	}
+	
+	static Callable<Boolean> sameContent(final Item a, final Item b) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws IOException {
+				return a.crc() == b.crc();
+			}
+		};
+	}
+	
+	/** the leaves of a directory, or of a zip, by relative name */
+	public static class Tree {
+		final String ROOT;
+		final SortedMap<String, Item> ITEMS = new TreeMap<String, Item>();
+		Tree(String root) {
+			ROOT = root;
+		}
+		
+		/** a zip's entries, or a directory's leaves */
+		public static Tree of(File f) throws IOException {
+			return f.isFile() ? zip(f, "") : directory(f);
+		}
+		
+		public static Tree directory(final File dir) throws IOException {
+			Preconditions.checkArgument(dir.isDirectory(), "not a directory: %s", dir);
+			final Tree retVal = new Tree(dir.getPath());
+			final Path root = dir.toPath();
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (! attrs.isDirectory()) {
+						String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+						retVal.ITEMS.put(name, new Item(name, attrs.size(), attrs.lastModifiedTime().toMillis(), file.toFile()));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			return retVal;
+		}
+		
+		/**
+		 * the entries of a zip under the given prefix (e.g. "dir/", or "" for all), named without it.
+		 * directory entries are ignored.
+		 */
+		public static Tree zip(File zip, String prefix) throws IOException {
+			Tree retVal = new Tree(zip.getPath() + "!/" + prefix);
+			for (CentralDirectory.Record record : ZipIndex.SHARED.get(zip).records()) {
+				String name = record.ENTRY.getName();
+				if (record.ENTRY.isDirectory() || ! name.startsWith(prefix))
+					continue;
+				name = name.substring(prefix.length());
+				retVal.ITEMS.put(name, new Item(name, record));
+			}
+			return retVal;
+		}
+		
+		public int size() {
+			return ITEMS.size();
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Tree(%s: %s leaves)", ROOT, ITEMS.size());
+		}
+	}
+	
+	/** a leaf, either a File or a zip entry */
+	static class Item {
+		static final long UNKNOWN = -1;
+		
+		final String NAME;
+		final long SIZE, TIME;
+		/** null if zipped */
+		final File FILE;
+		/** null unless zipped */
+		final CentralDirectory.Record RECORD;
+		/** the CRC-32 of the content, as given by the zip or hashed (only if ambiguous) */
+		volatile long crc;
+		
+		Item(String name, long size, long time, File file) {
+			NAME = name;
+			SIZE = size;
+			TIME = time;
+			FILE = file;
+			RECORD = null;
+			crc = UNKNOWN;
+		}
+		Item(String name, CentralDirectory.Record record) {
+			NAME = name;
+			SIZE = record.ENTRY.getSize();
+			TIME = record.ENTRY.getTime();
+			FILE = null;
+			RECORD = record;
+			crc = record.ENTRY.getCrc();
+		}
+		
+		boolean isZipped() {
+			return null != RECORD;
+		}
+		boolean hasCrc() {
+			return UNKNOWN != crc;
+		}
+		long dosTime() {
+			return isZipped() ? RECORD.DOSTIME : ZipWriter.dosTime(TIME);
+		}
+		long crc() throws IOException {
+			if (! hasCrc()) {
+				CRC32 c = new CRC32();
+				ZipEngine.DEFAULT.checksum(FILE, c);
+				crc = c.getValue();
+			}
+			return crc;
+		}
+	}
+	
+	/** the counts of a diff */
+	public static class Result {
+		long added = 0, removed = 0, changed = 0, unchanged = 0, hashed = 0;
+		
+		void emit(Listener listener, Kind kind, String name) {
+			switch (kind) {
+			case ADDED: ++added; break;
+			case REMOVED: ++removed; break;
+			default: ++changed;
+			}
+			listener.diff(kind, name);
+		}
+		
+		public long getAdded() {
+			return added;
+		}
+		public long getRemoved() {
+			return removed;
+		}
+		public long getChanged() {
+			return changed;
+		}
+		public long getUnchanged() {
+			return unchanged;
+		}
+		/** the pairs whose content had to be hashed, i.e. whose size and time didn't suffice */
+		public long getHashed() {
+			return hashed;
+		}
+		/** whether the trees are the same */
+		public boolean isEmpty() {
+			return 0 == added + removed + changed;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Result(%s added, %s removed, %s changed, %s unchanged, %s hashed)",
+					added, removed, changed, unchanged, hashed);
+		}
+	}
+}
@@ -2,11 +2,27 @@ package org.fwb.file.zip;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
+import org.fwb.file.FileUtil;
 import org.fwb.file.dir.TempDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+
 /**
  * extends the TempDirectory API to include a source/target zip-file.
  * when done, the user must call {@link #close} on any instance of this class,
@@ -22,6 +38,11 @@ import org.slf4j.LoggerFactory;
  * and unzipped into the directory *upon construction*.
  * likewise, the zip-file may be treated as "destination,"
  * and the user's actions/content in the directory are auto-zipped to the zip-file *upon close*.
+ * 
+ * alternatively, a "lazy" instance (see {@link #lazy}) only indexes the zip-file upon construction,
+ * and extracts each entry the first time it is requested via {@link #getFile}.
+ * distinct entries are extracted concurrently, through one channel upon the zip-file (open until {@link #close});
+ * concurrent requests for the same entry await a single extraction.
  */
 public class ZipDirectory extends TempDirectory {
 	/** default */
@@ -44,17 +65,160 @@ public class ZipDirectory extends TempDirectory {
 		return retVal;
 	}
 	
+	/**
+	 * indexes the zip-file without extracting anything.
+	 * each entry is then extracted upon its first request via {@link #getFile},
+	 * and any remaining entries before zipping.
+	 * 
+	 * n.b. the zip-file must remain unchanged until then.
+	 */
+	public static final ZipDirectory lazy(File zip) throws IOException {
+		return lazy(zip,
+				DEFAULT_PREFIX, DEFAULT_SUFFIX, DEFAULT_LOCATION);
+	}
+	public static final ZipDirectory lazy(File zip,
+			String prefix, String suffix, File location) throws IOException {
+		return new ZipDirectory(zip, prefix, suffix, location,
+				ZipIndex.SHARED.get(zip)); // IOException
+	}
+	
 	public final File ZIP;
+	/** in lazy mode, the index of the zip-file's entries; otherwise null */
+	final transient CentralDirectory INDEX;
+	/** in lazy mode, every directory named or implied by the index (without trailing slash) */
+	final transient Set<String> DIRECTORIES;
+	/** in lazy mode, by name (without trailing slash): its materialization, done or in flight */
+	final transient ConcurrentMap<String, FutureTask<Void>> MATERIALIZED;
+	/** in lazy mode, the channel shared by all extractions; opened upon the first */
+	transient FileChannel channel = null;
+	
 	public ZipDirectory(File zip) throws IOException {
 		this(zip,
 				DEFAULT_PREFIX, DEFAULT_SUFFIX, DEFAULT_LOCATION);
 	}
 	public ZipDirectory(File zip,
 			String prefix, String suffix, File location) throws IOException {
+		this(zip, prefix, suffix, location, null);
+	}
+	ZipDirectory(File zip,
+			String prefix, String suffix, File location, CentralDirectory index) throws IOException {
 		super(prefix, suffix, location); // IOException
 		ZIP = zip;
-		LOG.trace("creating ZipDirectory({}, {}, {}, {})",
-				zip, prefix, suffix, location);
+		INDEX = index;
+		if (null == INDEX) {
+			DIRECTORIES = null;
+			MATERIALIZED = null;
+		} else {
+			DIRECTORIES = new HashSet<String>();
+			for (String name : INDEX.names())
+				for (int i = name.lastIndexOf('/'); i > 0; i = name.lastIndexOf('/', i - 1))
+					DIRECTORIES.add(name.substring(0, i));
+			MATERIALIZED = new ConcurrentHashMap<String, FutureTask<Void>>();
+		}
+		LOG.trace("creating ZipDirectory({}, {}, {}, {}): {}",
+				zip, prefix, suffix, location, INDEX);
+	}
+	
+	public final boolean isLazy() {
+		return null != INDEX;
+	}
+	
+	/**
+	 * the names of all entries in the zip-file, as indexed upon construction.
+	 * @throws IllegalStateException unless {@link #isLazy()}
+	 */
+	public final Set<String> getEntryNames() {
+		Preconditions.checkState(isLazy(), "not lazy: %s", this);
+		return INDEX.names();
+	}
+	
+	/**
+	 * the File in this directory at the given (relative, '/'-separated) path.
+	 * in lazy mode, the first request for an entry extracts it (and creates its parent directories);
+	 * a request for a directory only creates it, not its contents.
+	 * an existing File is never over-written, i.e. the user's own content takes precedence.
+	 * 
+	 * n.b. deleting a directory so obtained (e.g. "dir/") doesn't delete its entries from the zip-file:
+	 *  any not yet materialized are extracted anew (recreating the directory) by {@link #materializeAll}, i.e. by {@link #zip}.
+	 */
+	public final File getFile(String name) throws IOException {
+		File retVal = new File(this, name);
+		if (isLazy())
+			materialize(name, retVal);
+		return retVal;
+	}
+	
+	void materialize(String name, final File f) throws IOException {
+		final String key = key(name);
+		FutureTask<Void> task = MATERIALIZED.get(key);
+		if (null == task) {
+			FutureTask<Void> mine = new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					extract(key, f);
+					return null;
+				}
+			});
+			task = MATERIALIZED.putIfAbsent(key, mine);
+			if (null == task) {
+				task = mine;
+				mine.run();
+			}
+		}
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted materializing " + name);
+		} catch (ExecutionException e) {
+			// so that it may be retried
+			MATERIALIZED.remove(key, task);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	static String key(String name) {
+		return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+	}
+	
+	void extract(String key, File f) throws IOException {
+		CentralDirectory.Record r = INDEX.get(key);
+		if (null == r) {
+			if (DIRECTORIES.contains(key))
+				f.mkdirs();
+		} else {
+			f.getParentFile().mkdirs();
+			if (f.exists()) {
+				LOG.trace("materialize collision, kept: {}", f);
+			} else {
+				LOG.trace("materializing: {} -> {}", r, f);
+				InputStream is = r.open(channel()); try {
+					FileUtil.save(is, f);
+				} finally {
+					is.close();
+				}
+				ZipUtility.restoreTime(f, r.ENTRY);
+			}
+		}
+	}
+	
+	synchronized FileChannel channel() throws IOException {
+		if (null == channel)
+			channel = FileChannel.open(ZIP.toPath(), StandardOpenOption.READ);
+		return channel;
+	}
+	
+	/**
+	 * in lazy mode, extracts every entry not yet materialized; otherwise does nothing.
+	 * n.b. including the entries of any directory the user has deleted since requesting it (see {@link #getFile}).
+	 */
+	public final void materializeAll() throws IOException {
+		if (isLazy())
+			for (String name : INDEX.names())
+				materialize(name, new File(this, name));
 	}
 	
 	/**
@@ -62,13 +226,56 @@ public class ZipDirectory extends TempDirectory {
 	 */
 	public final void unzip() throws IOException {
 		ZipUtility.unzip(ZIP, this);
+		markMaterialized();
+	}
+	/**
+	 * unzips the contents of File {@link #ZIP} into this directory,
+	 * extracting in parallel on the given executor
+	 * @see ZipUtility#unzip(File, File, ExecutorService)
+	 */
+	public final void unzip(ExecutorService executor) throws IOException {
+		ZipUtility.unzip(ZIP, this, executor);
+		markMaterialized();
+	}
+	/** in lazy mode, having fully unzipped, nothing is left to materialize */
+	private void markMaterialized() {
+		if (isLazy())
+			for (String name : INDEX.names()) {
+				FutureTask<Void> done = new FutureTask<Void>(new Runnable() {
+					@Override
+					public void run() {}
+				}, null);
+				done.run();
+				MATERIALIZED.put(key(name), done);
+			}
 	}
 	/**
 	 * sends the contents of this directory to File {@link #ZIP}
+	 * (in lazy mode, first materializing whatever remains)
 	 */
 	public final void zip() throws IOException {
+		materializeAll();
 		ZipUtility.zip(ZIP, listFiles());
 	}
+	/**
+	 * sends the contents of this directory to File {@link #ZIP},
+	 * compressing in parallel on the given executor
+	 * @see ZipUtility#zip(File, ExecutorService, File...)
+	 */
+	public final void zip(ExecutorService executor) throws IOException {
+		materializeAll();
+		ZipUtility.zip(ZIP, executor, listFiles());
+	}
+	/**
+	 * sends the contents of this directory to File {@link #ZIP},
+	 * re-compressing only what changed since ZIP was last written
+	 * @return the number of entries reused unchanged
+	 * @see ZipUtility#zipIncremental(File, File...)
+	 */
+	public final int zipIncremental() throws IOException {
+		materializeAll();
+		return ZipUtility.zipIncremental(ZIP, listFiles());
+	}
 	
 //	/** @deprecated close() should always be in the finally block, zip() should ~never be there */
 //	public void zipAndClose() throws IOException {
@@ -78,7 +285,33 @@ public class ZipDirectory extends TempDirectory {
 	
 	@Override
 	public void close() throws IOException {
-		super.close();
+		try {
+			closeChannel();
+		} finally {
+			super.close();
+		}
+	}
+	@Override
+	public void close(ForkJoinPool pool) throws IOException {
+		try {
+			closeChannel();
+		} finally {
+			super.close(pool);
+		}
+	}
+	@Override
+	public void closeAsync() throws IOException {
+		try {
+			closeChannel();
+		} finally {
+			super.closeAsync();
+		}
+	}
+	synchronized void closeChannel() throws IOException {
+		if (null != channel) {
+			channel.close();
+			channel = null;
+		}
 	}
 	
 	@Override
@@ -0,0 +1,1107 @@
+package org.fwb.file.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.fwb.file.zip.CompressionPolicy.Compression;
+import org.fwb.file.zip.ZipUtility.Leaf;
+import org.fwb.file.zip.ZipUtility.RawEntry;
+import org.fwb.io.Metrics;
+import org.fwb.io.Metrics.Operation;
+import org.fwb.io.Metrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+
+/**
+ * the implementation behind {@link ZipUtility}, as an instance which
+ * pools (and so reuses, across calls) its native Deflaters and Inflaters and its copy buffers,
+ * rather than allocating (and finalizing) them anew for every archive.
+ * this matters when packing many small archives.
+ * 
+ * an instance is safe to share across threads.
+ * its default compression level (that of {@link Compression#DEFAULT}) and buffer size are configurable;
+ * {@link #DEFAULT} is the instance to which the static methods of ZipUtility delegate.
+ * 
+ * archives are indexed through {@link ZipIndex#SHARED}, and any written through an engine are invalidated there.
+ * 
+ * note: the stream unzips still inflate through {@link ZipInputStream}, whose Inflater can't be supplied,
+ *  so they pool only their buffers.
+ * 
+ * @see ZipUtility for documentation of the individual operations
+ */
+public class ZipEngine implements Closeable {
+	static final Logger LOG = LoggerFactory.getLogger(ZipEngine.class);
+	
+	static final int
+		DEFAULT_BUFFER_SIZE = 8192,
+		DEFAULT_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+	
+	/** the default (shared) instance; closing it is a mistake */
+	public static final ZipEngine DEFAULT = new ZipEngine();
+	
+	/** the level at which {@link Compression#DEFAULT} deflates */
+	public final int LEVEL;
+	/** the size of the (pooled) copy buffers */
+	public final int BUFFER_SIZE;
+	
+	final Pool<Deflater> DEFLATERS;
+	final Pool<Inflater> INFLATERS;
+	final Pool<byte[]> BUFFERS;
+	/** the pipelined unzip's (larger) buffers, enough for one unzip at a time */
+	final Pool<byte[]> PIPE_BUFFERS;
+	
+	public ZipEngine() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	public ZipEngine(int level) {
+		this(level, DEFAULT_BUFFER_SIZE, DEFAULT_POOL_SIZE);
+	}
+	/**
+	 * @param level the {@link Deflater} level at which {@link Compression#DEFAULT} deflates
+	 * @param bufferSize the size of the copy buffers
+	 * @param poolSize how many of each pooled object (Deflater, Inflater, buffer) to keep idle
+	 */
+	public ZipEngine(int level, final int bufferSize, int poolSize) {
+		Preconditions.checkArgument(Deflater.DEFAULT_COMPRESSION == level
+				|| (Deflater.NO_COMPRESSION <= level && level <= Deflater.BEST_COMPRESSION),
+				"invalid level: %s", level);
+		Preconditions.checkArgument(bufferSize > 0, "invalid bufferSize: %s", bufferSize);
+		LEVEL = level;
+		BUFFER_SIZE = bufferSize;
+		
+		DEFLATERS = new Pool<Deflater>(poolSize) {
+			@Override
+			Deflater create() {
+				return new Deflater(LEVEL, true);
+			}
+			@Override
+			void reset(Deflater d) {
+				d.reset();
+			}
+			@Override
+			void destroy(Deflater d) {
+				d.end();
+			}
+		};
+		INFLATERS = new Pool<Inflater>(poolSize) {
+			@Override
+			Inflater create() {
+				return new Inflater(true);
+			}
+			@Override
+			void reset(Inflater i) {
+				i.reset();
+			}
+			@Override
+			void destroy(Inflater i) {
+				i.end();
+			}
+		};
+		BUFFERS = new Pool<byte[]>(poolSize) {
+			@Override
+			byte[] create() {
+				return new byte[bufferSize];
+			}
+		};
+		PIPE_BUFFERS = new Pool<byte[]>(ZipUtility.PIPELINE_BUFFERS) {
+			@Override
+			byte[] create() {
+				return new byte[ZipUtility.PIPELINE_BUFFER_SIZE];
+			}
+		};
+	}
+	
+	/** the Deflater level for the given Compression */
+	int level(Compression c) {
+		return Compression.DEFAULT == c ? LEVEL : c.LEVEL;
+	}
+	
+	/** a pooled Deflater, at the given level */
+	Deflater deflater(Compression c) {
+		Deflater retVal = DEFLATERS.borrow();
+		retVal.setLevel(level(c));
+		return retVal;
+	}
+	
+	/**
+	 * ends the idle Deflaters and Inflaters.
+	 * the engine remains usable (allocating anew) but should no longer be.
+	 */
+	@Override
+	public void close() {
+		DEFLATERS.clear();
+		INFLATERS.clear();
+		BUFFERS.clear();
+		PIPE_BUFFERS.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("ZipEngine(level=%s, bufferSize=%s)", LEVEL, BUFFER_SIZE);
+	}
+	
+	/**
+	 * @see ZipUtility#zip(File, CompressionPolicy, File...)
+	 */
+	public void zip(File outputZip, CompressionPolicy policy, File... inputContents) throws IOException {
+		OutputStream os = new FileOutputStream(outputZip); try {
+			zip(os, policy, inputContents);
+		} finally {
+			os.close();
+			ZipIndex.SHARED.invalidate(outputZip);
+		}
+	}
+	
+	/**
+	 * @see ZipUtility#zip(OutputStream, CompressionPolicy, File...)
+	 */
+	public void zip(OutputStream outputZip, CompressionPolicy policy, File... inputContents) throws IOException {
+		LOG.trace("start zip({}, {}, {})", outputZip, policy, inputContents);
+		ZipWriter zw = new ZipWriter(outputZip);
+		byte[] buf = BUFFERS.borrow();
+		try {
+			for (File f : inputContents)
+				addFileToZip(zw, policy, ZipUtility.rootPath(f), f, buf);
+		} finally {
+			BUFFERS.release(buf);
+		}
+		zw.finish();	// IOException
+		LOG.trace("end zip({}, {}, {})", outputZip, policy, inputContents);
+	}
+	
+	/**
+	 * adds a File, named relative to some context root path, to a zip container
+	 * 
+	 * note: this method does NOT add empty folders to the zip.
+	 *  they are completely lost in translation.
+	 * 
+	 * @param zw the ZipWriter
+	 * @param policy decides how each leaf is compressed
+	 * @param rootPath path of root, *including* trailing path separator.
+	 *  all ZipEntries will have their names relative to this context root.
+	 * @param content the File to add to the zip, recursively.
+	 * @param buf scratch space
+	 * 
+	 * @throws IOException thrown by underlying streaming/zipping libraries
+	 */
+	private void addFileToZip(ZipWriter zw, CompressionPolicy policy, String rootPath, File content, byte[] buf) throws IOException {
+		// n.b. guarded, as the only varargs (i.e. allocating) trace calls per entry
+		if (LOG.isTraceEnabled())
+			LOG.trace("start addFileToZip({}, {}, {})", zw, rootPath, content);
+		
+		if (content.isDirectory()) {
+			for (File f : content.listFiles())
+				addFileToZip(zw, policy, rootPath, f, buf);
+		} else {
+			LOG.trace("adding leaf: {}", content);
+			
+			ZipEntry ze = new ZipEntry(ZipUtility.entryName(rootPath, content)); // IllegalArgumentException: if name is longer than OxFFFF bytes
+			ze.setTime(content.lastModified());
+			Compression compression = policy.apply(content);
+			// n.b. a small stored leaf is read once, for both its CRC and its data
+			byte[] data = null;
+			if (Compression.STORED == compression) {
+				if (content.length() <= ZipUtility.PARALLEL_ENTRY_LIMIT)
+					stored(ze, data = com.google.common.io.Files.toByteArray(content)); // IOException
+				else
+					stored(ze, content); // IOException
+			}
+			
+			boolean timed = Metrics.isEnabled();
+			long start = timed ? System.nanoTime() : 0, opened = 0, written = 0;
+			InputStream is = null == data ? new FileInputStream(content) : new ByteArrayInputStream(data); try { // FileNotFoundException, IOException
+				if (timed)
+					opened = System.nanoTime();
+				if (Compression.STORED == compression) {
+					zw.putRaw(ze, is); // IOException
+				} else {
+					Deflater deflater = deflater(compression);
+					try {
+						zw.putDeflated(ze, is, deflater, buf); // IOException
+					} finally {
+						DEFLATERS.release(deflater);
+					}
+				}
+				if (timed)
+					written = System.nanoTime();
+			} finally {
+				is.close(); // IOException
+			}
+			if (timed) {
+				long end = System.nanoTime();
+				Metrics.phase(Operation.ZIP, Phase.OPEN, opened - start);
+				Metrics.phase(Operation.ZIP, Compression.STORED == compression ? Phase.WRITE : Phase.DEFLATE, written - opened);
+				Metrics.phase(Operation.ZIP, Phase.CLOSE, end - written);
+				Metrics.completed(Operation.ZIP, 1, ze.getSize(), ze.getCompressedSize(), end - start);
+			}
+		}
+		if (LOG.isTraceEnabled())
+			LOG.trace("end addFileToZip({}, {}, {})", zw, rootPath, content);
+	}
+	
+	/**
+	 * @see ZipUtility#zip(File, ExecutorService, CompressionPolicy, File...)
+	 */
+	public void zip(File outputZip, ExecutorService executor, CompressionPolicy policy, File... inputContents) throws IOException {
+		OutputStream os = new FileOutputStream(outputZip); try {
+			zip(os, executor, policy, inputContents);
+		} finally {
+			os.close();
+			ZipIndex.SHARED.invalidate(outputZip);
+		}
+	}
+	
+	/**
+	 * @see ZipUtility#zip(OutputStream, ExecutorService, CompressionPolicy, File...)
+	 */
+	public void zip(OutputStream outputZip, ExecutorService executor, CompressionPolicy policy,
+			File... inputContents) throws IOException {
+		zip(outputZip, executor, policy, (DedupCache) null, inputContents);
+	}
+	
+	/**
+	 * @see ZipUtility#zip(File, ExecutorService, CompressionPolicy, DedupCache, File...)
+	 */
+	public DedupCache.Report zip(File outputZip, ExecutorService executor, CompressionPolicy policy, DedupCache dedup,
+			File... inputContents) throws IOException {
+		OutputStream os = new FileOutputStream(outputZip); try {
+			return zip(os, executor, policy, dedup, inputContents);
+		} finally {
+			os.close();
+			ZipIndex.SHARED.invalidate(outputZip);
+		}
+	}
+	
+	/**
+	 * @param dedup if null, no deduplication; the returned Report is then empty
+	 * @see ZipUtility#zip(OutputStream, ExecutorService, CompressionPolicy, DedupCache, File...)
+	 */
+	public DedupCache.Report zip(OutputStream outputZip, ExecutorService executor, final CompressionPolicy policy,
+			final DedupCache dedup, File... inputContents) throws IOException {
+		LOG.trace("start zip({}, {}, {}, {}, {})", outputZip, executor, policy, dedup, inputContents);
+		final DedupCache.Report retVal = new DedupCache.Report();
+		
+		List<Leaf> leaves = new ArrayList<Leaf>();
+		for (File f : inputContents)
+			ZipUtility.addLeaves(leaves, ZipUtility.rootPath(f), f);
+		
+		ZipWriter zw = new ZipWriter(outputZip);
+		Deque<Future<RawEntry>> window = new ArrayDeque<Future<RawEntry>>();
+		try {
+			for (final Leaf leaf : leaves) {
+				if (window.size() >= ZipUtility.PARALLEL_WINDOW)
+					writeRawEntry(zw, ZipUtility.await(window.removeFirst()));
+				window.addLast(executor.submit(new Callable<RawEntry>() {
+					@Override
+					public RawEntry call() throws IOException {
+						boolean timed = Metrics.isEnabled();
+						long start = timed ? System.nanoTime() : 0;
+						RawEntry raw = null == dedup
+								? compress(leaf, policy, ZipUtility.PARALLEL_ENTRY_LIMIT)
+								: deduplicate(leaf, policy, dedup, retVal);
+						if (timed)
+							Metrics.phase(Operation.ZIP, Phase.DEFLATE, System.nanoTime() - start);
+						return raw;
+					}
+				}));
+			}
+			while (! window.isEmpty())
+				writeRawEntry(zw, ZipUtility.await(window.removeFirst()));
+			zw.finish();
+		} finally {
+			// only non-empty upon failure
+			for (Future<RawEntry> f : window)
+				f.cancel(true);
+		}
+		
+		LOG.trace("end zip({}, {}, {}, {}, {}): {} entries; {}",
+				outputZip, executor, policy, dedup, inputContents, leaves.size(), retVal);
+		return retVal;
+	}
+	
+	/**
+	 * compresses a leaf as {@link #compress} would, unless the cache holds (or is computing) the same content,
+	 * compressed the same way, in which case its bytes and CRC are reused.
+	 * leaves too large to be compressed into memory are not deduplicated.
+	 */
+	RawEntry deduplicate(final Leaf leaf, CompressionPolicy policy, DedupCache dedup, DedupCache.Report report) throws IOException {
+		final Compression compression = policy.apply(leaf.FILE);
+		long length = leaf.FILE.length();
+		if (length > ZipUtility.PARALLEL_ENTRY_LIMIT)
+			return compress(leaf, compression, ZipUtility.PARALLEL_ENTRY_LIMIT);
+		
+		long start = System.nanoTime();
+		HashCode hash = com.google.common.io.Files.asByteSource(leaf.FILE).hash(DedupCache.HASH); // IOException
+		long hashNanos = System.nanoTime() - start;
+		report.HASH_NANOS.addAndGet(hashNanos);
+		dedup.TOTAL.HASH_NANOS.addAndGet(hashNanos);
+		
+		DedupCache.Key key = Compression.STORED == compression
+				? new DedupCache.Key(hash, length, ZipEntry.STORED, Deflater.NO_COMPRESSION)
+				: new DedupCache.Key(hash, length, ZipEntry.DEFLATED, level(compression));
+		DedupCache.Blob blob = dedup.get(key, new Callable<DedupCache.Blob>() {
+			@Override
+			public DedupCache.Blob call() throws IOException {
+				long start = System.nanoTime();
+				RawEntry raw = compress(leaf, compression, Long.MAX_VALUE);
+				int csize = (int) raw.ENTRY.getCompressedSize();
+				return new DedupCache.Blob(raw.ENTRY.getMethod(), raw.ENTRY.getCrc(), raw.ENTRY.getSize(),
+						raw.DATA.length == csize ? raw.DATA : Arrays.copyOf(raw.DATA, csize),
+						System.nanoTime() - start);
+			}
+		}, report);
+		
+		ZipEntry ze = new ZipEntry(leaf.NAME);
+		ze.setTime(leaf.FILE.lastModified());
+		ze.setMethod(blob.METHOD);
+		ze.setCrc(blob.CRC);
+		ze.setSize(blob.SIZE);
+		ze.setCompressedSize(blob.DATA.length);
+		return new RawEntry(leaf.FILE, ze, compression, blob.DATA);
+	}
+	
+	/**
+	 * @see ZipUtility#zipIncremental(File, CompressionPolicy, File...)
+	 */
+	public int zipIncremental(File zip, CompressionPolicy policy, File... inputContents) throws IOException {
+		LOG.trace("start zipIncremental({}, {}, {})", zip, policy, inputContents);
+		if (! zip.isFile()) {
+			zip(zip, policy, inputContents);
+			return 0;
+		}
+		
+		List<Leaf> leaves = new ArrayList<Leaf>();
+		for (File f : inputContents)
+			ZipUtility.addLeaves(leaves, ZipUtility.rootPath(f), f);
+		CentralDirectory previous = ZipIndex.SHARED.get(zip);
+		
+		int retVal = 0;
+		// n.b. padded, as createTempFile wants a prefix of at least 3 characters
+		File tmp = File.createTempFile("." + zip.getName() + ".", ".tmp", zip.getAbsoluteFile().getParentFile());
+		try {
+			FileChannel ch = FileChannel.open(zip.toPath(), StandardOpenOption.READ); try {
+				OutputStream os = new FileOutputStream(tmp); try {
+					ZipWriter zw = new ZipWriter(os);
+					for (Leaf leaf : leaves) {
+						CentralDirectory.Record r = previous.get(leaf.NAME);
+						if (null != r && unchanged(r, leaf.FILE)) {
+							LOG.trace("copying unchanged leaf: {}", leaf.FILE);
+							ZipEntry ze = new ZipEntry(r.ENTRY);
+							ze.setTime(leaf.FILE.lastModified());
+							zw.putRaw(ze, new CentralDirectory.ChannelSliceInputStream(
+									ch, r.getDataOffset(ch), r.ENTRY.getCompressedSize()));
+							++retVal;
+						} else {
+							LOG.trace("compressing new/changed leaf: {}", leaf.FILE);
+							writeRawEntry(zw, compress(leaf, policy, ZipUtility.PARALLEL_ENTRY_LIMIT));
+						}
+					}
+					zw.finish();
+				} finally {
+					os.close();
+				}
+			} finally {
+				ch.close();
+			}
+			java.nio.file.Files.move(tmp.toPath(), zip.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// only exists upon failure
+			tmp.delete();
+			ZipIndex.SHARED.invalidate(zip);
+		}
+		
+		LOG.trace("end zipIncremental({}, {}, {}): copied {} of {} entries",
+				zip, policy, inputContents, retVal, leaves.size());
+		return retVal;
+	}
+	
+	/**
+	 * whether the leaf still matches the given (previously zipped) entry, and that entry can be copied
+	 */
+	boolean unchanged(CentralDirectory.Record r, File leaf) throws IOException {
+		if (! r.isCopyable() || r.ENTRY.getSize() != leaf.length())
+			return false;
+		if (r.DOSTIME == ZipWriter.dosTime(leaf.lastModified()))
+			return true;
+		CRC32 crc = new CRC32();
+		checksum(leaf, crc);
+		return r.ENTRY.getCrc() == crc.getValue();
+	}
+	
+	/**
+	 * writes a (pre-compressed) RawEntry,
+	 * or, if it was too large to have been buffered, streams it in now.
+	 */
+	void writeRawEntry(ZipWriter zw, RawEntry raw) throws IOException {
+		boolean timed = Metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+		writeRaw(zw, raw);
+		if (timed) {
+			// n.b. a parallel zip's latency per entry is that of its (serial) write; its compression is a phase upon another thread
+			long nanos = System.nanoTime() - start;
+			Metrics.phase(Operation.ZIP, Phase.WRITE, nanos);
+			Metrics.completed(Operation.ZIP, 1, raw.ENTRY.getSize(), raw.ENTRY.getCompressedSize(), nanos);
+		}
+	}
+	void writeRaw(ZipWriter zw, RawEntry raw) throws IOException {
+		if (null != raw.DATA) {
+			zw.putRaw(raw.ENTRY, raw.DATA, 0, (int) raw.ENTRY.getCompressedSize());
+		} else {
+			LOG.trace("streaming large leaf: {}", raw.FILE);
+			InputStream is = new FileInputStream(raw.FILE); try {
+				if (ZipEntry.STORED == raw.ENTRY.getMethod()) {
+					zw.putRaw(raw.ENTRY, is);
+				} else {
+					Deflater deflater = deflater(raw.COMPRESSION);
+					byte[] buf = BUFFERS.borrow();
+					try {
+						zw.putDeflated(raw.ENTRY, is, deflater, buf);
+					} finally {
+						BUFFERS.release(buf);
+						DEFLATERS.release(deflater);
+					}
+				}
+			} finally {
+				is.close();
+			}
+		}
+	}
+	
+	/**
+	 * compresses a leaf, as the policy decides, entirely into memory,
+	 * computing its CRC and sizes along the way.
+	 * 
+	 * @param limit if the leaf is larger than this, it is not buffered,
+	 *  and the returned RawEntry has null DATA.
+	 *  (a stored leaf has its CRC and size computed regardless, as they must precede its data;
+	 *  from its buffered data, if it is buffered.)
+	 */
+	RawEntry compress(Leaf leaf, CompressionPolicy policy, long limit) throws IOException {
+		return compress(leaf, policy.apply(leaf.FILE), limit);
+	}
+	RawEntry compress(Leaf leaf, Compression compression, long limit) throws IOException {
+		ZipEntry ze = new ZipEntry(leaf.NAME);
+		ze.setTime(leaf.FILE.lastModified());
+		
+		long length = leaf.FILE.length();
+		if (Compression.STORED == compression) {
+			byte[] data = length > limit ? null : com.google.common.io.Files.toByteArray(leaf.FILE);
+			if (null == data)
+				stored(ze, leaf.FILE);
+			else
+				stored(ze, data);
+			return new RawEntry(leaf.FILE, ze, compression, data);
+		}
+		
+		ze.setMethod(ZipEntry.DEFLATED);
+		if (length > limit)
+			return new RawEntry(leaf.FILE, ze, compression, null);
+		
+		CRC32 crc = new CRC32();
+		long size = 0;
+		byte[] out = new byte[(int) Math.max(64, Math.min(length / 2, limit))];
+		int len = 0;
+		
+		byte[] in = BUFFERS.borrow();
+		Deflater deflater = deflater(compression);
+		try {
+			InputStream is = new FileInputStream(leaf.FILE); try {
+				for (int n; (n = is.read(in)) >= 0; ) {
+					crc.update(in, 0, n);
+					size += n;
+					deflater.setInput(in, 0, n);
+					while (! deflater.needsInput()) {
+						if (len == out.length)
+							out = Arrays.copyOf(out, 2 * out.length);
+						len += deflater.deflate(out, len, out.length - len);
+					}
+				}
+				deflater.finish();
+				while (! deflater.finished()) {
+					if (len == out.length)
+						out = Arrays.copyOf(out, 2 * out.length);
+					len += deflater.deflate(out, len, out.length - len);
+				}
+			} finally {
+				is.close();
+			}
+		} finally {
+			DEFLATERS.release(deflater);
+			BUFFERS.release(in);
+		}
+		
+		ze.setCrc(crc.getValue());
+		ze.setSize(size);
+		ze.setCompressedSize(len);
+		return new RawEntry(leaf.FILE, ze, compression, out);
+	}
+	
+	/**
+	 * prepares a ZipEntry to store the given leaf as-is:
+	 * sets its method, and its CRC and sizes (which requires reading the whole leaf).
+	 */
+	void stored(ZipEntry ze, File leaf) throws IOException {
+		CRC32 crc = new CRC32();
+		long size = checksum(leaf, crc);
+		stored(ze, crc, size);
+	}
+	/** as {@link #stored(ZipEntry, File)}, of a leaf already read into memory */
+	static void stored(ZipEntry ze, byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		stored(ze, crc, data.length);
+	}
+	static void stored(ZipEntry ze, CRC32 crc, long size) {
+		ze.setMethod(ZipEntry.STORED);
+		ze.setCrc(crc.getValue());
+		ze.setSize(size);
+		ze.setCompressedSize(size);
+	}
+	
+	/**
+	 * updates the CRC with the whole content of the given leaf
+	 * 
+	 * @return the number of bytes read
+	 */
+	long checksum(File leaf, CRC32 crc) throws IOException {
+		long retVal = 0;
+		byte[] buf = BUFFERS.borrow();
+		try {
+			InputStream is = new FileInputStream(leaf); try {
+				for (int n; (n = is.read(buf)) >= 0; ) {
+					crc.update(buf, 0, n);
+					retVal += n;
+				}
+			} finally {
+				is.close();
+			}
+		} finally {
+			BUFFERS.release(buf);
+		}
+		return retVal;
+	}
+	
+	/**
+	 * @see ZipUtility#unzip(File, File, FileFilter)
+	 */
+	public void unzip(File inputZip, File outputDirectory, FileFilter overWrite) throws IOException {
+		LOG.trace("start unzip({}, {}, {})", inputZip, outputDirectory, overWrite);
+		
+		CentralDirectory cd = ZipIndex.SHARED.get(inputZip); // ZipException, IOException
+		FileChannel ch = FileChannel.open(inputZip.toPath(), StandardOpenOption.READ); try {
+			for (CentralDirectory.Record r : cd.records()) {
+				ZipEntry entry = r.ENTRY;
+				
+				File f = new File(outputDirectory, entry.getName());
+				if (entry.isDirectory()) {
+					// necessary for empty directories, who will not be made by "getParentFile().mkdirs()" below
+					LOG.trace("extracting directory: {} -> {}", entry, f);
+					f.mkdirs();
+				} else {
+					LOG.trace("extracting leaf: {} -> {}", entry, f);
+					
+					// this is necessary for files in a top-level directory
+					// because that top-level directory is not a ZipEntry
+					f.getParentFile().mkdirs();
+					
+					// handle collisions
+					if (f.exists()) {
+						if (overWrite.accept(f)) {
+							LOG.trace("collision over-written: {}", f);
+						} else {
+							LOG.trace("collision filtered: {}", f);
+							continue;
+						}
+					}
+					
+					// write the file
+					extract(ch, r, f); // ZipException, IOException
+				}
+			}
+		} finally {
+			ch.close(); // IOException
+		}
+		
+		LOG.trace("end unzip({}, {})", inputZip, outputDirectory);
+	}
+	
+	/**
+	 * @see ZipUtility#unzip(File, File, FileFilter, ExecutorService)
+	 */
+	public void unzip(File inputZip, File outputDirectory, FileFilter overWrite, ExecutorService executor) throws IOException {
+		LOG.trace("start unzip({}, {}, {}, {})", inputZip, outputDirectory, overWrite, executor);
+		
+		CentralDirectory cd = ZipIndex.SHARED.get(inputZip); // ZipException, IOException
+		final FileChannel ch = FileChannel.open(inputZip.toPath(), StandardOpenOption.READ); try {
+			// the skeleton and collisions, serially; later entries of the same name replace earlier
+			Map<File, CentralDirectory.Record> leaves = new LinkedHashMap<File, CentralDirectory.Record>();
+			Set<File> directories = new HashSet<File>();
+			for (CentralDirectory.Record r : cd.records()) {
+				File f = new File(outputDirectory, r.ENTRY.getName());
+				if (r.ENTRY.isDirectory()) {
+					if (directories.add(f))
+						f.mkdirs();
+				} else {
+					File parent = f.getParentFile();
+					if (directories.add(parent))
+						parent.mkdirs();
+					
+					if (leaves.containsKey(f) || f.exists()) {
+						if (overWrite.accept(f)) {
+							LOG.trace("collision over-written: {}", f);
+						} else {
+							LOG.trace("collision filtered: {}", f);
+							continue;
+						}
+					}
+					leaves.remove(f);
+					leaves.put(f, r);
+				}
+			}
+			
+			// the leaves, in parallel; reads are positional, so all share the one channel
+			List<Future<Long>> tasks = new ArrayList<Future<Long>>(leaves.size());
+			try {
+				for (final Map.Entry<File, CentralDirectory.Record> leaf : leaves.entrySet())
+					tasks.add(executor.submit(new Callable<Long>() {
+						@Override
+						public Long call() throws IOException {
+							LOG.trace("extracting leaf: {} -> {}", leaf.getValue(), leaf.getKey());
+							return extract(ch, leaf.getValue(), leaf.getKey());
+						}
+					}));
+				for (Future<Long> task : tasks)
+					ZipUtility.await(task);
+			} finally {
+				// only effective upon failure
+				for (Future<Long> task : tasks)
+					task.cancel(true);
+			}
+		} finally {
+			ch.close(); // IOException
+		}
+		
+		LOG.trace("end unzip({}, {}, {})", inputZip, outputDirectory, executor);
+	}
+	
+	/**
+	 * writes the content of a single leaf entry to the given File
+	 * 
+	 * @return the number of bytes written
+	 */
+	long extract(FileChannel ch, CentralDirectory.Record r, File f) throws IOException {
+		long retVal;
+		boolean timed = Metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0, opened = 0, inflated = 0;
+		Inflater inflater = INFLATERS.borrow();
+		byte[] buf = BUFFERS.borrow();
+		try {
+			InputStream is = r.open(ch, inflater); try { // ZipException, IOException
+				OutputStream os = new FileOutputStream(f); try { // FileNotFoundException, IOException
+					if (timed)
+						opened = System.nanoTime();
+					retVal = copy(is, os, buf); // IOException
+					if (timed)
+						inflated = System.nanoTime();
+				} finally {
+					os.close(); // IOException
+				}
+			} finally {
+				is.close(); // IOException
+			}
+		} finally {
+			BUFFERS.release(buf);
+			INFLATERS.release(inflater);
+		}
+		ZipUtility.restoreTime(f, r.ENTRY);
+		if (timed) {
+			long end = System.nanoTime();
+			Metrics.phase(Operation.UNZIP, Phase.OPEN, opened - start);
+			Metrics.phase(Operation.UNZIP, ZipEntry.STORED == r.ENTRY.getMethod() ? Phase.WRITE : Phase.INFLATE, inflated - opened);
+			Metrics.phase(Operation.UNZIP, Phase.CLOSE, end - inflated);
+			Metrics.completed(Operation.UNZIP, 1, r.ENTRY.getCompressedSize(), retVal, end - start);
+		}
+		return retVal;
+	}
+	
+	static long copy(InputStream from, OutputStream to, byte[] buf) throws IOException {
+		long retVal = 0;
+		for (int n; (n = from.read(buf)) >= 0; ) {
+			to.write(buf, 0, n);
+			retVal += n;
+		}
+		return retVal;
+	}
+	
+	/**
+	 * @see ZipUtility#unzip(InputStream, File)
+	 */
+	public void unzip(InputStream zip, File outputDirectory) throws IOException {
+		LOG.trace("start unzip({}, {})", zip, outputDirectory);
+		
+		ZipInputStream zipFile = new ZipInputStream(zip);										// ZipException, IOException
+		byte[] buf = BUFFERS.borrow();
+		try {
+			for (ZipEntry entry; (entry = zipFile.getNextEntry()) != null; ) {
+				File f = new File(outputDirectory, entry.getName());
+				if (entry.isDirectory()) {
+					// necessary for empty directories, who will not be made by "getParentFile().mkdirs()" below
+					f.mkdirs();
+				} else {
+					// this is necessary for files in a top-level directory
+					// because that top-level directory is not a ZipEntry
+					f.getParentFile().mkdirs();
+					
+					// write the file
+					OutputStream os = new FileOutputStream(f); try {	// FileNotFoundException, IOException
+						copy(zipFile, os, buf);							// IOException
+					} finally {
+						os.close();										// IOException
+					}
+					ZipUtility.restoreTime(f, entry);
+				}
+				zipFile.closeEntry();
+			}
+		} finally {
+			BUFFERS.release(buf);
+		}
+		
+		zipFile.close();
+		
+		LOG.trace("done unzip({}, {})", zip, outputDirectory);
+	}
+	
+	/**
+	 * @see ZipUtility#unzip(InputStream, File, ExecutorService)
+	 */
+	public void unzip(InputStream zip, File outputDirectory, ExecutorService writers) throws IOException {
+		LOG.trace("start unzip({}, {}, {})", zip, outputDirectory, writers);
+		
+		ZipInputStream zipFile = new ZipInputStream(zip);										// ZipException, IOException
+		Pipeline pipeline = new Pipeline(PIPE_BUFFERS, writers);
+		PipedLeaf current = null;
+		try {
+			for (ZipEntry entry; (entry = zipFile.getNextEntry()) != null; ) {
+				File f = new File(outputDirectory, entry.getName());
+				if (entry.isDirectory()) {
+					// necessary for empty directories, who will not be made by "getParentFile().mkdirs()" below
+					f.mkdirs();
+				} else {
+					// this is necessary for files in a top-level directory
+					// because that top-level directory is not a ZipEntry
+					f.getParentFile().mkdirs();
+					
+					current = pipeline.open(f, entry);													// IOException
+					for (int n = ZipUtility.PIPELINE_BUFFER_SIZE; n == ZipUtility.PIPELINE_BUFFER_SIZE; ) {
+						byte[] buf = pipeline.buffer();													// InterruptedIOException
+						n = com.google.common.io.ByteStreams.read(zipFile, buf, 0, ZipUtility.PIPELINE_BUFFER_SIZE);	// IOException
+						pipeline.put(current, buf, n);
+					}
+					current.finish();
+					current = null;
+					
+					// surface any failure early
+					pipeline.check();																	// IOException
+				}
+				zipFile.closeEntry();
+			}
+			
+			pipeline.await();																			// IOException
+		} finally {
+			// n.b. current is only unfinished upon failure
+			pipeline.close(current);
+		}
+		
+		zipFile.close();
+		
+		LOG.trace("done unzip({}, {}, {})", zip, outputDirectory, writers);
+	}
+	
+	/**
+	 * the writing half of the pipelined unzip: the reader hands it chunks of whichever leaves,
+	 * which (up to {@link ZipUtility#PIPELINE_WRITERS}) writer loops upon the executor drain from one shared queue,
+	 * each writing its chunk at the chunk's own position in its leaf (so chunks of a leaf may be written in any order, or at once).
+	 * 
+	 * the writer loops are started on demand, and end once the queue is empty;
+	 * and the reader writes chunks itself rather than wait for a buffer.
+	 * so progress never depends upon how (or whether) the executor runs them:
+	 * a direct executor writes on the reader's thread, and a saturated one merely later.
+	 */
+	static class Pipeline {
+		final Pool<byte[]> POOL;
+		final ExecutorService EXECUTOR;
+		/** buffers borrowed from the POOL, and not in use */
+		final BlockingQueue<byte[]> FREE = new ArrayBlockingQueue<byte[]>(ZipUtility.PIPELINE_BUFFERS);
+		/** chunks awaiting a writer; n.b. never full, as each holds one of the buffers */
+		final BlockingQueue<Chunk> CHUNKS = new ArrayBlockingQueue<Chunk>(ZipUtility.PIPELINE_BUFFERS);
+		/** the writer loops started, and not yet ended */
+		final AtomicInteger WRITERS = new AtomicInteger();
+		final AtomicReference<IOException> FAILURE = new AtomicReference<IOException>();
+		/** by the reader only */
+		int borrowed = 0;
+		/** leaves opened and not yet closed; guarded by this */
+		int open = 0;
+		/** whether to skip (rather than write) the chunks remaining */
+		volatile boolean aborted = false;
+		
+		Pipeline(Pool<byte[]> pool, ExecutorService executor) {
+			POOL = pool;
+			EXECUTOR = executor;
+		}
+		
+		PipedLeaf open(File f, ZipEntry entry) throws IOException {
+			LOG.trace("extracting leaf: {} -> {}", entry, f);
+			FileChannel ch = FileChannel.open(f.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			synchronized (this) {
+				++open;
+			}
+			return new PipedLeaf(this, f, entry, ch);
+		}
+		
+		/**
+		 * a free buffer, borrowing from the pool up to {@link ZipUtility#PIPELINE_BUFFERS} of them;
+		 * once all are in use, writes queued chunks on this thread (rather than wait for writers which may not yet run)
+		 * until one is freed.
+		 */
+		byte[] buffer() throws InterruptedIOException {
+			for (;;) {
+				byte[] retVal = FREE.poll();
+				if (null != retVal)
+					return retVal;
+				if (borrowed < ZipUtility.PIPELINE_BUFFERS) {
+					++borrowed;
+					return POOL.borrow();
+				}
+				Chunk chunk = CHUNKS.poll();
+				if (null != chunk) {
+					write(chunk);
+					continue;
+				}
+				// every buffer is in the hands of a (running) writer
+				try {
+					retVal = FREE.poll(10, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					InterruptedIOException iioe = new InterruptedIOException("interrupted awaiting buffer");
+					iioe.initCause(e);
+					throw iioe;
+				}
+				if (null != retVal)
+					return retVal;
+			}
+		}
+		
+		/** queues the first len bytes of the buffer, as the next of the leaf; or if none, frees it */
+		void put(PipedLeaf leaf, byte[] buf, int len) {
+			if (len <= 0) {
+				FREE.add(buf);
+				return;
+			}
+			leaf.PENDING.incrementAndGet();
+			CHUNKS.add(new Chunk(leaf, leaf.position, buf, len));
+			leaf.position += len;
+			if (reserve())
+				try {
+					EXECUTOR.execute(new Runnable() {
+						@Override
+						public void run() {
+							drain();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					LOG.trace("writer rejected, the reader writes instead: {}", e);
+					WRITERS.decrementAndGet();
+				}
+		}
+		
+		/** counts another writer loop, unless there are enough already */
+		boolean reserve() {
+			for (int n; (n = WRITERS.get()) < ZipUtility.PIPELINE_WRITERS; )
+				if (WRITERS.compareAndSet(n, n + 1))
+					return true;
+			return false;
+		}
+		/** a writer loop: writes chunks until there are none */
+		void drain() {
+			do {
+				try {
+					for (Chunk chunk; null != (chunk = CHUNKS.poll()); )
+						write(chunk);
+				} finally {
+					WRITERS.decrementAndGet();
+				}
+				// in case a chunk was queued between the last poll and the decrement, when there seemed enough writers
+			} while (! CHUNKS.isEmpty() && reserve());
+		}
+		
+		void write(Chunk chunk) {
+			PipedLeaf leaf = chunk.LEAF;
+			try {
+				if (! aborted && null == leaf.FAILURE.get()) {
+					ByteBuffer bb = ByteBuffer.wrap(chunk.BUF, 0, chunk.LEN);
+					for (long position = chunk.POSITION; bb.hasRemaining(); )
+						position += leaf.CHANNEL.write(bb, position);							// IOException
+				}
+			} catch (IOException e) {
+				leaf.FAILURE.compareAndSet(null, e);
+			} finally {
+				FREE.add(chunk.BUF);
+				leaf.release();
+			}
+		}
+		
+		/** upon a leaf's last chunk being written (or skipped) */
+		void closed(PipedLeaf leaf) {
+			try {
+				leaf.CHANNEL.close();
+			} catch (IOException e) {
+				leaf.FAILURE.compareAndSet(null, e);
+			}
+			IOException failure = leaf.FAILURE.get();
+			if (null != failure)
+				FAILURE.compareAndSet(null, failure);
+			else if (! aborted)
+				ZipUtility.restoreTime(leaf.FILE, leaf.ENTRY);
+			synchronized (this) {
+				--open;
+				notifyAll();
+			}
+		}
+		
+		/** throws the first failure to write, if any */
+		void check() throws IOException {
+			IOException failure = FAILURE.get();
+			if (null != failure)
+				throw failure;
+		}
+		
+		/** writes whatever is queued (on this thread), awaits the writers, and throws the first failure if any */
+		void await() throws IOException {
+			for (Chunk chunk; null != (chunk = CHUNKS.poll()); )
+				write(chunk);
+			synchronized (this) {
+				while (open > 0)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						InterruptedIOException iioe = new InterruptedIOException("interrupted awaiting writers");
+						iioe.initCause(e);
+						throw iioe;
+					}
+			}
+			check();
+		}
+		
+		/**
+		 * skips whatever remains, and returns the buffers to the pool once the writers have let go of them
+		 * @param unfinished the leaf being read, if reading failed
+		 */
+		void close(PipedLeaf unfinished) {
+			aborted = true;
+			if (null != unfinished)
+				unfinished.finish();
+			for (Chunk chunk; null != (chunk = CHUNKS.poll()); )
+				write(chunk);
+			// n.b. not for long: a writer holds a chunk only while writing it
+			boolean interrupted = false;
+			synchronized (this) {
+				while (open > 0)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			for (byte[] buf; null != (buf = FREE.poll()); )
+				POOL.release(buf);
+		}
+		
+		/** the first LEN bytes of a pooled buffer, to be written at POSITION of LEAF */
+		static class Chunk {
+			final PipedLeaf LEAF;
+			final long POSITION;
+			final byte[] BUF;
+			final int LEN;
+			Chunk(PipedLeaf leaf, long position, byte[] buf, int len) {
+				LEAF = leaf;
+				POSITION = position;
+				BUF = buf;
+				LEN = len;
+			}
+		}
+	}
+	
+	/**
+	 * a single leaf being extracted by a {@link Pipeline}, which closes it once its last chunk is written
+	 * (upon the writer's thread, or the reader's, whichever finishes it).
+	 */
+	static class PipedLeaf {
+		final Pipeline PIPELINE;
+		final File FILE;
+		final ZipEntry ENTRY;
+		final FileChannel CHANNEL;
+		/** chunks not yet written; plus one, until the reader has finished the leaf */
+		final AtomicInteger PENDING = new AtomicInteger(1);
+		final AtomicReference<IOException> FAILURE = new AtomicReference<IOException>();
+		/** where the next chunk goes; by the reader only */
+		long position = 0;
+		PipedLeaf(Pipeline pipeline, File file, ZipEntry entry, FileChannel channel) {
+			PIPELINE = pipeline;
+			FILE = file;
+			ENTRY = entry;
+			CHANNEL = channel;
+		}
+		
+		/** the reader has handed over every chunk */
+		void finish() {
+			release();
+		}
+		void release() {
+			if (0 == PENDING.decrementAndGet())
+				PIPELINE.closed(this);
+		}
+	}
+}
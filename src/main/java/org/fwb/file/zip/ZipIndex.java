@@ -0,0 +1,173 @@
+package org.fwb.file.zip;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * a bounded, least-recently-used cache of {@link CentralDirectory} indices,
+ * so that repeated reads from the same (hot) archives need not re-parse their central directories.
+ * 
+ * each archive is cached under its absolute path, stamped with the size and lastModified it had when indexed;
+ * a lookup whose stamp no longer matches the file re-reads the index (i.e. the key is effectively (path, size, mtime)).
+ * the cache is bounded by the total number of entries indexed, which is what it costs in memory;
+ * whichever archives were least recently used are evicted first.
+ * 
+ * every operation is thread-safe; indices are read outside the lock.
+ */
+public class ZipIndex {
+	static final Logger LOG = LoggerFactory.getLogger(ZipIndex.class);
+	
+	/** the index shared by this package's read paths ({@link ZipUtility}, {@link ZipEngine}, {@link ZipDirectory}) */
+	public static final ZipIndex SHARED = new ZipIndex(
+			Integer.getInteger("org.fwb.dir.ZipIndex.MAX_ENTRIES", 1 << 20));
+	
+	/** the most entries (summed across archives) to keep indexed */
+	public final int MAX_ENTRIES;
+	
+	final Map<File, Stamped> CACHE = new LinkedHashMap<File, Stamped>(16, 0.75f, true);
+	int entries = 0;
+	final AtomicLong
+		HITS = new AtomicLong(),
+		MISSES = new AtomicLong();
+	
+	public ZipIndex(int maxEntries) {
+		Preconditions.checkArgument(maxEntries >= 0, "invalid maxEntries: %s", maxEntries);
+		MAX_ENTRIES = maxEntries;
+	}
+	
+	/**
+	 * the index of the given zip File, from the cache if it is current, otherwise freshly read (and cached)
+	 * 
+	 * @throws java.util.zip.ZipException if the File is not a (supported) zip archive
+	 */
+	public CentralDirectory get(File zip) throws IOException {
+		File key = zip.getAbsoluteFile();
+		long length = key.length(), lastModified = key.lastModified();
+		
+		Stamped cached;
+		synchronized (this) {
+			cached = CACHE.get(key);
+		}
+		if (null != cached && cached.LENGTH == length && cached.LAST_MODIFIED == lastModified) {
+			HITS.incrementAndGet();
+			return cached.INDEX;
+		}
+		
+		MISSES.incrementAndGet();
+		CentralDirectory retVal = CentralDirectory.read(key); // IOException
+		put(key, new Stamped(retVal, length, lastModified));
+		return retVal;
+	}
+	
+	/**
+	 * the Record of the named entry in the given zip File, or null if there is none
+	 * @see #get(File)
+	 */
+	public CentralDirectory.Record get(File zip, String name) throws IOException {
+		return get(zip).get(name);
+	}
+	
+	/**
+	 * streams the content (inflated, if need be) of a single entry of the given zip File,
+	 * reading only that entry's data, at its indexed offset.
+	 * closing the stream releases the File.
+	 * 
+	 * @throws FileNotFoundException if there is no such entry
+	 */
+	public InputStream open(File zip, String name) throws IOException {
+		CentralDirectory.Record r = get(zip, name);
+		if (null == r)
+			throw new FileNotFoundException(String.format("no entry %s in %s", name, zip));
+		
+		final FileChannel ch = FileChannel.open(zip.toPath(), StandardOpenOption.READ);
+		try {
+			return new FilterInputStream(r.open(ch)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						ch.close();
+					}
+				}
+			};
+		} catch (IOException e) {
+			ch.close();
+			throw e;
+		} catch (RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+	
+	/** forgets the index of the given zip File, e.g. having re-written it */
+	public synchronized void invalidate(File zip) {
+		Stamped removed = CACHE.remove(zip.getAbsoluteFile());
+		if (null != removed)
+			entries -= removed.INDEX.records().size();
+	}
+	/** forgets all indices */
+	public synchronized void clear() {
+		CACHE.clear();
+		entries = 0;
+	}
+	
+	/** the number of archives currently indexed */
+	public synchronized int size() {
+		return CACHE.size();
+	}
+	public long getHits() {
+		return HITS.get();
+	}
+	public long getMisses() {
+		return MISSES.get();
+	}
+	
+	synchronized void put(File key, Stamped value) {
+		Stamped previous = CACHE.put(key, value);
+		if (null != previous)
+			entries -= previous.INDEX.records().size();
+		entries += value.INDEX.records().size();
+		
+		// evict the least recently used, though never what was just put
+		for (Iterator<Map.Entry<File, Stamped>> it = CACHE.entrySet().iterator(); entries > MAX_ENTRIES && it.hasNext(); ) {
+			Map.Entry<File, Stamped> eldest = it.next();
+			if (eldest.getValue() == value)
+				continue;
+			LOG.trace("evicting: {}", eldest.getValue().INDEX);
+			entries -= eldest.getValue().INDEX.records().size();
+			it.remove();
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("ZipIndex(%s archives, %s of %s entries, %s hits, %s misses)",
+				CACHE.size(), entries, MAX_ENTRIES, HITS.get(), MISSES.get());
+	}
+	
+	/** an index, and the size and lastModified of its File when read */
+	static class Stamped {
+		final CentralDirectory INDEX;
+		final long LENGTH, LAST_MODIFIED;
+		Stamped(CentralDirectory index, long length, long lastModified) {
+			INDEX = index;
+			LENGTH = length;
+			LAST_MODIFIED = lastModified;
+		}
+	}
+}
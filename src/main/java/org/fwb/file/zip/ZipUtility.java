@@ -2,23 +2,23 @@ package org.fwb.file.zip;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import org.fwb.file.dir.FileFilters;
+import org.fwb.file.zip.CompressionPolicy.Compression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
-import com.google.common.io.ByteStreams;
 
 /**
  * integrates "zipping" functionality (archive + compress)
@@ -32,6 +32,9 @@ import com.google.common.io.ByteStreams;
  * TODO merge the two unzip implementations,
  *  using some uniform data structure for Stream/File;
  *  see guava ByteSource.
+ * 
+ * the implementation is that of {@link ZipEngine#DEFAULT};
+ * callers wanting their own compression level or buffer sizes may instantiate a ZipEngine instead.
  */
 public class ZipUtility {
 	static final Logger LOG = LoggerFactory.getLogger(ZipUtility.class);
@@ -45,6 +48,30 @@ public class ZipUtility {
 			LOG.trace("FAILSAFE_CHAR: '{}'", FAILSAFE_CHAR);
 	}
 	
+	/**
+	 * the parallel {@link #zip(OutputStream, ExecutorService, File...)} keeps at most this many entries
+	 * in flight (compressing, or compressed and awaiting their turn to be written).
+	 * together with {@link #PARALLEL_ENTRY_LIMIT} this bounds its memory use.
+	 */
+	static final int PARALLEL_WINDOW = Integer.getInteger("org.fwb.dir.ZipUtility.PARALLEL_WINDOW",
+			4 * Runtime.getRuntime().availableProcessors());
+	/**
+	 * leaves larger than this (in bytes) are not compressed into memory by the parallel zip,
+	 * but streamed straight into the archive by the writing thread, in their turn.
+	 */
+	static final long PARALLEL_ENTRY_LIMIT = Long.getLong("org.fwb.dir.ZipUtility.PARALLEL_ENTRY_LIMIT", 8 << 20);
+	
+	/**
+	 * the pipelined {@link #unzip(InputStream, File, ExecutorService)} inflates into a pool of this many buffers,
+	 * each of {@link #PIPELINE_BUFFER_SIZE} bytes, which bounds both its memory use
+	 * and how far the reading thread may run ahead of the writing threads.
+	 */
+	static final int PIPELINE_BUFFERS = Integer.getInteger("org.fwb.dir.ZipUtility.PIPELINE_BUFFERS", 64);
+	static final int PIPELINE_BUFFER_SIZE = Integer.getInteger("org.fwb.dir.ZipUtility.PIPELINE_BUFFER_SIZE", 64 << 10);
+	/** the most tasks the pipelined unzip runs upon its executor at once, each writing whichever files' buffers are ready */
+	static final int PIPELINE_WRITERS = Integer.getInteger("org.fwb.dir.ZipUtility.PIPELINE_WRITERS",
+			Runtime.getRuntime().availableProcessors());
+	
 	/** @deprecated static utilities only */
 	@Deprecated
 	private ZipUtility() { }
@@ -56,11 +83,16 @@ public class ZipUtility {
 	 * @see #zip(OutputStream, File...)
 	 */
 	public static final void zip(File outputZip, File... inputContents) throws IOException {
-		OutputStream os = new FileOutputStream(outputZip); try {
-			zip(os, inputContents);
-		} finally {
-			os.close();
-		}
+		zip(outputZip, Compression.DEFAULT, inputContents);
+	}
+	/**
+	 * facility method to auto-handle streaming to a zip File
+	 * 
+	 * @param outputZip the destination zip File
+	 * @see #zip(OutputStream, CompressionPolicy, File...)
+	 */
+	public static final void zip(File outputZip, CompressionPolicy policy, File... inputContents) throws IOException {
+		ZipEngine.DEFAULT.zip(outputZip, policy, inputContents);
 	}
 	
 	/**
@@ -76,84 +108,237 @@ public class ZipUtility {
 	 * @throws IOException thrown by underlying streaming/zipping libraries
 	 */
 	public static final void zip(OutputStream outputZip, File... inputContents) throws IOException {
-		LOG.trace("start zip({}, {})", outputZip, inputContents);
-		ZipOutputStream zos = new ZipOutputStream(outputZip);
-		for (File f : inputContents) {
-			String root = f.getParent();
-			
-			/*
-			 * necessary for relative paths
-			 */
-			if (null == root)
-				root = "";
-			else
-				/*
-				 * necessary because actual roots (drives, like c:\)
-				 * have canonical path ending in the separator,
-				 * while all other directories do not
-				 */
-				if (! root.endsWith(File.separator))
-					root += File.separator;
-			
-			addFileToZip(zos, root, f);
-		}
-		zos.finish();	// ZipException, IOException
-		LOG.trace("end zip({}, {})", outputZip, inputContents);
+		zip(outputZip, Compression.DEFAULT, inputContents);
+	}
+	/**
+	 * as {@link #zip(OutputStream, File...)}, but each leaf is added as the given policy decides:
+	 * either stored (with its CRC and size computed up front) or deflated at the chosen level.
+	 * 
+	 * @param policy e.g. {@link CompressionPolicy#ADAPTIVE}
+	 */
+	public static final void zip(OutputStream outputZip, CompressionPolicy policy, File... inputContents) throws IOException {
+		ZipEngine.DEFAULT.zip(outputZip, policy, inputContents);
+	}
+	
+	/**
+	 * facility method to auto-handle streaming to a zip File
+	 * 
+	 * @param outputZip the destination zip File
+	 * @see #zip(OutputStream, ExecutorService, File...)
+	 */
+	public static final void zip(File outputZip, ExecutorService executor, File... inputContents) throws IOException {
+		zip(outputZip, executor, Compression.DEFAULT, inputContents);
+	}
+	/**
+	 * facility method to auto-handle streaming to a zip File
+	 * 
+	 * @param outputZip the destination zip File
+	 * @see #zip(OutputStream, ExecutorService, CompressionPolicy, File...)
+	 */
+	public static final void zip(File outputZip, ExecutorService executor, CompressionPolicy policy, File... inputContents) throws IOException {
+		ZipEngine.DEFAULT.zip(outputZip, executor, policy, inputContents);
+	}
+	
+	/**
+	 * as {@link #zip(OutputStream, File...)}, but compresses the leaves in parallel (a la pigz).
+	 * each leaf is deflated independently, by a task on the given executor, into its own buffer;
+	 * the calling thread writes those buffers into the archive in the same order as the serial zip.
+	 * 
+	 * at most {@link #PARALLEL_WINDOW} leaves are in flight at once,
+	 * and any leaf larger than {@link #PARALLEL_ENTRY_LIMIT} is instead deflated by the calling thread
+	 * straight into the archive, so memory use stays bounded however large the input.
+	 * 
+	 * note: any empty folder will NOT be added.
+	 * note: does NOT close OutputStream "zip" when done, nor shut down the executor
+	 * 
+	 * @param outputZip the destination stream to which to send the zip's contents
+	 * @param executor runs the compression tasks
+	 * @param inputContents the Files to put into the zip
+	 * 
+	 * @throws IOException thrown by underlying streaming/zipping libraries
+	 */
+	public static final void zip(OutputStream outputZip, ExecutorService executor, File... inputContents) throws IOException {
+		zip(outputZip, executor, Compression.DEFAULT, inputContents);
+	}
+	/**
+	 * as {@link #zip(OutputStream, ExecutorService, File...)},
+	 * but each leaf is added as the given policy decides.
+	 * the policy is consulted by the compression tasks, i.e. also in parallel.
+	 * 
+	 * @param policy e.g. {@link CompressionPolicy#ADAPTIVE}
+	 * @see #zip(OutputStream, CompressionPolicy, File...)
+	 */
+	public static final void zip(OutputStream outputZip, ExecutorService executor, final CompressionPolicy policy,
+			File... inputContents) throws IOException {
+		ZipEngine.DEFAULT.zip(outputZip, executor, policy, inputContents);
 	}
 	
 	/**
-	 * adds a File, named relative to some context root path, to a zip container
+	 * facility method to auto-handle streaming to a zip File
 	 * 
-	 * note: this method does NOT add empty folders to the zip.
-	 *  they are completely lost in translation.
+	 * @param outputZip the destination zip File
+	 * @see #zip(OutputStream, ExecutorService, CompressionPolicy, DedupCache, File...)
+	 */
+	public static final DedupCache.Report zip(File outputZip, ExecutorService executor, CompressionPolicy policy, DedupCache dedup,
+			File... inputContents) throws IOException {
+		return ZipEngine.DEFAULT.zip(outputZip, executor, policy, dedup, inputContents);
+	}
+	/**
+	 * as {@link #zip(OutputStream, ExecutorService, CompressionPolicy, File...)},
+	 * but byte-identical leaves are compressed only once.
+	 * each compression task first hashes its leaf (i.e. in parallel),
+	 * and reuses the compressed bytes and CRC of any identical content, compressed the same way,
+	 * which the given cache holds: from earlier in this zip, or from earlier zips sharing the cache.
 	 * 
-	 * @param zos the ZipOutputStream
-	 * @param rootPath path of root, *including* trailing path separator.
-	 *  all ZipEntries will have their names relative to this context root.
-	 * @param content the File to add to the zip, recursively.
+	 * leaves larger than {@link #PARALLEL_ENTRY_LIMIT} are not deduplicated.
 	 * 
+	 * @param dedup the cache of compressed content; share it across calls for repeated builds to benefit
+	 * @return what deduplication saved in this zip (see also {@link DedupCache#TOTAL})
+	 */
+	public static final DedupCache.Report zip(OutputStream outputZip, ExecutorService executor, CompressionPolicy policy, DedupCache dedup,
+			File... inputContents) throws IOException {
+		return ZipEngine.DEFAULT.zip(outputZip, executor, policy, dedup, inputContents);
+	}
+	
+	/**
+	 * incrementally zip, deflating new and changed leaves at the default level.
+	 * @see #zipIncremental(File, CompressionPolicy, File...)
+	 */
+	public static final int zipIncremental(File zip, File... inputContents) throws IOException {
+		return zipIncremental(zip, Compression.DEFAULT, inputContents);
+	}
+	/**
+	 * re-writes the given zip File to contain exactly the given files/hierarchies,
+	 * as {@link #zip(File, CompressionPolicy, File...)} would,
+	 * but copies the compressed bytes of each *unchanged* leaf straight across from the zip's current contents,
+	 * without inflating nor deflating them. only new and changed leaves are compressed.
+	 * 
+	 * a leaf is unchanged if the zip holds an entry of the same name and size,
+	 * and either the same (2-second resolution) modification time or, failing that, the same CRC.
+	 * 
+	 * the new archive is written to a temporary sibling, then moved over the zip;
+	 * if the zip does not exist yet, this simply zips.
+	 * 
+	 * @param zip both the source of unchanged entries, and the destination
+	 * @return the number of entries copied across (i.e. not compressed)
 	 * @throws IOException thrown by underlying streaming/zipping libraries
 	 */
-	private static final void addFileToZip(ZipOutputStream zos, String rootPath, File content) throws IOException {
-		LOG.trace("start addFileToZip({}, {}, {})", zos, rootPath, content);
-		String name = content.getPath().substring(rootPath.length());
+	public static final int zipIncremental(File zip, CompressionPolicy policy, File... inputContents) throws IOException {
+		return ZipEngine.DEFAULT.zipIncremental(zip, policy, inputContents);
+	}
+	
+	/**
+	 * waits for a Future, unwrapping its failure as (or into) an IOException
+	 */
+	static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iioe = new InterruptedIOException("interrupted awaiting " + f);
+			iioe.initCause(e);
+			throw iioe;
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof IOException)
+				throw (IOException) t;
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw new IOException(t);
+		}
+	}
+	
+	/**
+	 * the path of the given File's parent, *including* trailing path separator,
+	 * i.e. the context root relative to which its entries are named.
+	 */
+	static String rootPath(File f) {
+		String root = f.getParent();
 		
-		if (content.isDirectory()) {	
-//			LOG.trace("adding directory: {}", content);
-			for (File f : content.listFiles())
-				addFileToZip(zos, rootPath, f);
-		} else {
-			LOG.trace("adding leaf: {}", content);
-			
+		/*
+		 * necessary for relative paths
+		 */
+		if (null == root)
+			root = "";
+		else
 			/*
-			 * TODO
-			 * this is a temporary hack-fix, but needs to be better thought out.
-			 * particularly, Zip7 can add m-dashes to names, and recognize them,
-			 * while windows sees zip7's output as "G\u00c7\u00f6".
-			 * Windows disallows adding m-dashes to a zip
-			 * Java adds them, then windows also sees them as "G\u00c7\u00f6".
-			 * In this case, even zip7 sees them as "G\u00c7\u00f6", so what is the difference?
+			 * necessary because actual roots (drives, like c:\)
+			 * have canonical path ending in the separator,
+			 * while all other directories do not
 			 */
-			name = name.replace('\u2014', FAILSAFE_CHAR);	// replace em-dash with hyphen
-			
-			/*
-			 * TODO
-			 * windows nastyhack sadness :(
-			 * there must at least be a way to "thoughtfully" acknowledge m$win before doing this?
-			 * e.g. on non-windows platforms, i'd prefer to just throw IOE if contains \\
-			 */
-			name = name.replace('\\', '/');
-			
-			ZipEntry ze = new ZipEntry(name); // IllegalArgumentException: if name is longer than OxFFFF bytes
-			zos.putNextEntry(ze); // ZipException, IOException
-			InputStream is = new FileInputStream(content); try { // FileNotFoundException, IOException
-				ByteStreams.copy(is, zos); // IOException
-			} finally {
-				is.close(); // IOException
-			}
-			zos.closeEntry(); // ZipException, IOException
+			if (! root.endsWith(File.separator))
+				root += File.separator;
+		
+		return root;
+	}
+	
+	/**
+	 * the zip-entry name of a leaf, relative to some context root path
+	 */
+	static String entryName(String rootPath, File leaf) {
+		String name = leaf.getPath().substring(rootPath.length());
+		
+		/*
+		 * TODO
+		 * this is a temporary hack-fix, but needs to be better thought out.
+		 * particularly, Zip7 can add m-dashes to names, and recognize them,
+		 * while windows sees zip7's output as "G\u00c7\u00f6".
+		 * Windows disallows adding m-dashes to a zip
+		 * Java adds them, then windows also sees them as "G\u00c7\u00f6".
+		 * In this case, even zip7 sees them as "G\u00c7\u00f6", so what is the difference?
+		 */
+		name = name.replace('\u2014', FAILSAFE_CHAR);	// replace em-dash with hyphen
+		
+		/*
+		 * TODO
+		 * windows nastyhack sadness :(
+		 * there must at least be a way to "thoughtfully" acknowledge m$win before doing this?
+		 * e.g. on non-windows platforms, i'd prefer to just throw IOE if contains \\
+		 */
+		return name.replace('\\', '/');
+	}
+	
+	/**
+	 * collects the leaves of a File (itself, or recursively its descendants),
+	 * in the same order {@link #addFileToZip} would add them.
+	 * empty folders are lost, just the same.
+	 */
+	static void addLeaves(List<Leaf> leaves, String rootPath, File content) {
+		if (content.isDirectory())
+			for (File f : content.listFiles())
+				addLeaves(leaves, rootPath, f);
+		else
+			leaves.add(new Leaf(entryName(rootPath, content), content));
+	}
+	
+	/** a leaf File, and the name of its zip-entry */
+	static class Leaf {
+		final String NAME;
+		final File FILE;
+		Leaf(String name, File file) {
+			NAME = name;
+			FILE = file;
+		}
+	}
+	
+	/**
+	 * a leaf's ZipEntry (with CRC and sizes) and its compressed DATA,
+	 * of which the first {@link ZipEntry#getCompressedSize()} bytes are valid.
+	 * DATA is null if the leaf was too large to buffer.
+	 */
+	static class RawEntry {
+		final File FILE;
+		final ZipEntry ENTRY;
+		final Compression COMPRESSION;
+		final byte[] DATA;
+		RawEntry(File file, ZipEntry entry, Compression compression, byte[] data) {
+			FILE = file;
+			ENTRY = entry;
+			COMPRESSION = compression;
+			DATA = data;
 		}
-		LOG.trace("end addFileToZip({}, {}, {})", zos, rootPath, content);
 	}
 	
 	/**
@@ -176,49 +361,58 @@ public class ZipUtility {
 	 * @param overWrite filter to determine whether to over-write conflicting target file
 	 */
 	public static final void unzip(File inputZip, File outputDirectory, FileFilter overWrite) throws IOException {
-		LOG.trace("start unzip({}, {}, {})", inputZip, outputDirectory, overWrite);
-		
-		ZipFile zipFile = new ZipFile(inputZip);
-		
-		for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
-			ZipEntry entry = entries.nextElement();
-			
-			File f = new File(outputDirectory, entry.getName());
-			if (entry.isDirectory()) {
-				// necessary for empty directories, who will not be made by "getParentFile().mkdirs()" below
-				LOG.trace("extracting directory: {} -> {}", entry, f);
-				f.mkdirs();
-			} else {
-				LOG.trace("extracting leaf: {} -> {}", entry, f);
-				
-				// this is necessary for files in a top-level directory
-				// because that top-level directory is not a ZipEntry
-				f.getParentFile().mkdirs();	
-				
-				// handle collisions
-				if (f.exists()) {
-					if (overWrite.accept(f)) {
-						LOG.trace("collision over-written: {}", f);
-					} else {
-						LOG.trace("collision filtered: {}", f);
-						continue;
-					}
-				}
-				
-				// write the file
-				InputStream is = zipFile.getInputStream(entry); // ZipException, IOException, IllegalStateException
-				OutputStream os = new FileOutputStream(f); try { // FileNotFoundException, IOException
-					ByteStreams.copy(is, os); // IOException
-				} finally {
-					os.close(); // IOException
-				}
-				is.close(); // IOException
-			}
-		}
-		
-		zipFile.close(); // IOException
-		
-		LOG.trace("end unzip({}, {})", inputZip, outputDirectory);
+		ZipEngine.DEFAULT.unzip(inputZip, outputDirectory, overWrite);
+	}
+	
+	/**
+	 * unzip in parallel, over-writing any existing files that conflict.
+	 * @see #unzip(File, File, FileFilter, ExecutorService)
+	 */
+	public static final void unzip(File inputZip, File outputDirectory, ExecutorService executor) throws IOException {
+		unzip(inputZip, outputDirectory, FileFilters.FF_TRUE, executor);
+	}
+	/**
+	 * as {@link #unzip(File, File, FileFilter)}, but inflates and writes the leaves in parallel.
+	 * 
+	 * first, on the calling thread, walks the central directory once:
+	 * creating the whole directory skeleton and consulting "overWrite" about every collision,
+	 * in entry order, exactly as the serial unzip would.
+	 * then fans the extraction of the surviving leaves out to the executor,
+	 * and waits for all of them.
+	 * 
+	 * where an archive (unusually) holds several entries of the same name,
+	 * the later ones are collisions with the earlier, as in the serial unzip,
+	 * and only the last one accepted is extracted.
+	 * 
+	 * note: "overWrite" is only ever called from the calling thread.
+	 * note: does NOT shut down the executor
+	 * 
+	 * @param executor runs the extraction tasks
+	 */
+	public static final void unzip(File inputZip, File outputDirectory, FileFilter overWrite, ExecutorService executor) throws IOException {
+		ZipEngine.DEFAULT.unzip(inputZip, outputDirectory, overWrite, executor);
+	}
+	
+	/**
+	 * streams the content of a single entry out of a zip File, without unzipping the rest.
+	 * the zip's central directory is cached (see {@link ZipIndex#SHARED}),
+	 * so repeated reads from the same archive cost only the entry's own data.
+	 * 
+	 * note: the caller must close the returned stream
+	 * 
+	 * @throws java.io.FileNotFoundException if there is no such entry
+	 */
+	public static final InputStream open(File inputZip, String entryName) throws IOException {
+		return ZipIndex.SHARED.open(inputZip, entryName);
+	}
+	
+	/**
+	 * sets an extracted leaf's lastModified to that of its entry (as "unzip" does),
+	 * which among other things lets {@link #zipIncremental} recognize it as unchanged.
+	 */
+	static void restoreTime(File f, ZipEntry entry) {
+		if (-1 != entry.getTime() && ! f.setLastModified(entry.getTime()))
+			LOG.trace("unable to set lastModified: {}", f);
 	}
 	
 	/**
@@ -227,35 +421,24 @@ public class ZipUtility {
 	 * note: the InputStream is NOT closed upon completion
 	 */
 	public static final void unzip(InputStream zip, File outputDirectory) throws IOException {
-		LOG.trace("start unzip({}, {})", zip, outputDirectory);
-		
-		ZipInputStream zipFile = new ZipInputStream(zip);										// ZipException, IOException
-		
-		for (ZipEntry entry; (entry = zipFile.getNextEntry()) != null; ) {
-			File f = new File(outputDirectory, entry.getName());
-			if (entry.isDirectory()) {
-				// necessary for empty directories, who will not be made by "getParentFile().mkdirs()" below
-//				LOG.debug("extracting directory: " + f);
-				f.mkdirs();
-			} else {
-//				LOG.debug("extracting file: " + f);
-				
-				// this is necessary for files in a top-level directory
-				// because that top-level directory is not a ZipEntry
-				f.getParentFile().mkdirs();	
-				
-				// write the file
-				OutputStream os = new FileOutputStream(f); try {	// FileNotFoundException, IOException
-					ByteStreams.copy(zipFile, os);					// IOException
-				} finally {
-					os.close();										// IOException
-				}
-			}
-			zipFile.closeEntry();
-		}
-		
-		zipFile.close();
-		
-		LOG.trace("done unzip({}, {})", zip, outputDirectory);
+		ZipEngine.DEFAULT.unzip(zip, outputDirectory);
+	}
+	
+	/**
+	 * as {@link #unzip(InputStream, File)}, but pipelined:
+	 * the calling thread only reads and inflates, into a bounded pool of buffers,
+	 * while tasks on the given executor create, fill (and close) the target files.
+	 * decoding thus overlaps with disk I/O, e.g. when the zip arrives over a socket.
+	 * 
+	 * once all {@link #PIPELINE_BUFFERS} buffers are awaiting writers, the reader writes them itself (backpressure).
+	 * up to {@link #PIPELINE_WRITERS} tasks write whichever files' buffers are ready, and end when there are none;
+	 * so any executor will do, even a direct one (which writes upon the calling thread) or one busy with the caller.
+	 * 
+	 * note: the InputStream is NOT closed upon completion, nor is the executor shut down
+	 * 
+	 * @param writers runs the file-writing tasks; whatever they leave undone, the calling thread writes
+	 */
+	public static final void unzip(InputStream zip, File outputDirectory, ExecutorService writers) throws IOException {
+		ZipEngine.DEFAULT.unzip(zip, outputDirectory, writers);
 	}
 }
\ No newline at end of file
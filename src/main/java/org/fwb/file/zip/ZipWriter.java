@@ -0,0 +1,360 @@
+package org.fwb.file.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * a minimal zip-archive writer which, unlike {@link java.util.zip.ZipOutputStream},
+ * accepts entries whose data is *already* compressed (or stored),
+ * alongside their precomputed CRC and sizes.
+ * this is what allows entries to be deflated elsewhere (e.g. on other threads, or in a previous archive)
+ * and then merely copied, in order, into a single archive.
+ * 
+ * the output is a plain PKZIP archive (with zip64 records only where the sizes demand them),
+ * readable by {@link java.util.zip.ZipFile}, {@link java.util.zip.ZipInputStream} and "unzip" alike.
+ * 
+ * note: does NOT close the underlying OutputStream; see {@link #finish}.
+ * note: an instance is NOT thread-safe; entries must be written by one thread, in order.
+ */
+public class ZipWriter {
+	static final Logger LOG = LoggerFactory.getLogger(ZipWriter.class);
+	
+	static final int
+		LOCSIG = 0x04034b50,
+		EXTSIG = 0x08074b50,
+		CENSIG = 0x02014b50,
+		ENDSIG = 0x06054b50,
+		ZIP64_ENDSIG = 0x06064b50,
+		ZIP64_LOCSIG = 0x07064b50,
+		ZIP64_EXTID = 0x0001,
+		
+		VERSION_STORED = 10,
+		VERSION_DEFLATED = 20,
+		VERSION_ZIP64 = 45,
+		
+		FLAG_DATA_DESCRIPTOR = 0x08,
+		FLAG_UTF8 = 0x800;
+	
+	static final long
+		ZIP64_MAGICVAL = 0xFFFFFFFFL,
+		/** 1980-01-01 00:00:00, the earliest DOS date/time */
+		DOSTIME_MIN = (1 << 21) | (1 << 16),
+		/** 2107-12-31 23:59:58, the latest DOS date/time */
+		DOSTIME_MAX = 127L << 25 | 12 << 21 | 31 << 16 | 23 << 11 | 59 << 5 | 58 >> 1;
+	static final int
+		ZIP64_MAGICCOUNT = 0xFFFF;
+	
+	final CountingOutputStream OUT;
+	final List<Central> CENTRAL = new ArrayList<Central>();
+	/** scratch space for deflated output */
+	final byte[] DEFLATED = new byte[8192];
+	boolean finished = false;
+	
+	public ZipWriter(OutputStream out) {
+		OUT = new CountingOutputStream(out);
+	}
+	
+	/** the number of bytes written so far, i.e. the offset of the next record */
+	public long getCount() {
+		return OUT.getCount();
+	}
+	
+	/**
+	 * writes an entry whose (compressed) data is already known.
+	 * 
+	 * @param entry must carry name, time, method, CRC, size and compressed-size
+	 * @param data the entry's data, as it is to appear in the archive (i.e. deflated or stored)
+	 */
+	public void putRaw(ZipEntry entry, byte[] data, int off, int len) throws IOException {
+		Preconditions.checkArgument(len == entry.getCompressedSize(),
+				"%s: compressed size %s != data length %s", entry.getName(), entry.getCompressedSize(), len);
+		writeLocal(entry, 0);
+		OUT.write(data, off, len);
+	}
+	
+	/**
+	 * writes an entry whose (compressed) data is already known,
+	 * copying exactly {@link ZipEntry#getCompressedSize()} bytes from the given stream.
+	 * 
+	 * note: does NOT close InputStream "data"
+	 */
+	public void putRaw(ZipEntry entry, InputStream data) throws IOException {
+		writeLocal(entry, 0);
+		long copied = ByteStreams.copy(ByteStreams.limit(data, entry.getCompressedSize()), OUT);
+		if (copied != entry.getCompressedSize())
+			throw new IOException(String.format("%s: truncated raw data (%s of %s bytes)",
+					entry.getName(), copied, entry.getCompressedSize()));
+	}
+	
+	/**
+	 * deflates the given content into the archive as it is read,
+	 * so the CRC and sizes are unknown up front and are written in a trailing data descriptor.
+	 * this is the only way to add an entry without buffering all of it.
+	 * 
+	 * note: does NOT close InputStream "content", nor end Deflater "deflater" (which is reset before use)
+	 * 
+	 * @param entry must carry name and time; its method, CRC and sizes are set by this method
+	 * @param deflater a raw ("nowrap") deflater
+	 * @param buf scratch space for reading content
+	 */
+	public void putDeflated(ZipEntry entry, InputStream content, Deflater deflater, byte[] buf) throws IOException {
+		entry.setMethod(ZipEntry.DEFLATED);
+		writeLocal(entry, FLAG_DATA_DESCRIPTOR);
+		
+		CRC32 crc = new CRC32();
+		long size = 0, start = OUT.getCount();
+		deflater.reset();
+		for (int n; (n = content.read(buf)) >= 0; ) {
+			if (0 == n)
+				continue;
+			crc.update(buf, 0, n);
+			size += n;
+			deflater.setInput(buf, 0, n);
+			while (! deflater.needsInput())
+				drain(deflater);
+		}
+		deflater.finish();
+		while (! deflater.finished())
+			drain(deflater);
+		
+		entry.setCrc(crc.getValue());
+		entry.setSize(size);
+		entry.setCompressedSize(OUT.getCount() - start);
+		
+		boolean zip64 = entry.getSize() >= ZIP64_MAGICVAL || entry.getCompressedSize() >= ZIP64_MAGICVAL;
+		ByteBuffer bb = buffer(zip64 ? 24 : 16);
+		bb.putInt(EXTSIG);
+		bb.putInt((int) entry.getCrc());
+		if (zip64) {
+			bb.putLong(entry.getCompressedSize());
+			bb.putLong(entry.getSize());
+		} else {
+			bb.putInt((int) entry.getCompressedSize());
+			bb.putInt((int) entry.getSize());
+		}
+		write(bb);
+	}
+	private void drain(Deflater deflater) throws IOException {
+		int n = deflater.deflate(DEFLATED, 0, DEFLATED.length);
+		if (n > 0)
+			OUT.write(DEFLATED, 0, n);
+	}
+	
+	/**
+	 * writes the central directory and end-of-central-directory records.
+	 * no entries may be added afterwards.
+	 * 
+	 * note: does NOT close the underlying OutputStream
+	 */
+	public void finish() throws IOException {
+		Preconditions.checkState(! finished, "already finished");
+		finished = true;
+		
+		long cenStart = OUT.getCount();
+		for (Central c : CENTRAL)
+			writeCentral(c);
+		long cenSize = OUT.getCount() - cenStart;
+		
+		int count = CENTRAL.size();
+		if (count >= ZIP64_MAGICCOUNT || cenStart >= ZIP64_MAGICVAL || cenSize >= ZIP64_MAGICVAL) {
+			long end64 = OUT.getCount();
+			ByteBuffer bb = buffer(56 + 20);
+			bb.putInt(ZIP64_ENDSIG);
+			bb.putLong(56 - 12);	// size of the remaining record
+			bb.putShort((short) VERSION_ZIP64);
+			bb.putShort((short) VERSION_ZIP64);
+			bb.putInt(0);
+			bb.putInt(0);
+			bb.putLong(count);
+			bb.putLong(count);
+			bb.putLong(cenSize);
+			bb.putLong(cenStart);
+			
+			bb.putInt(ZIP64_LOCSIG);
+			bb.putInt(0);
+			bb.putLong(end64);
+			bb.putInt(1);
+			write(bb);
+		}
+		
+		ByteBuffer bb = buffer(22);
+		bb.putInt(ENDSIG);
+		bb.putShort((short) 0);
+		bb.putShort((short) 0);
+		bb.putShort((short) Math.min(count, ZIP64_MAGICCOUNT));
+		bb.putShort((short) Math.min(count, ZIP64_MAGICCOUNT));
+		bb.putInt((int) Math.min(cenSize, ZIP64_MAGICVAL));
+		bb.putInt((int) Math.min(cenStart, ZIP64_MAGICVAL));
+		bb.putShort((short) 0);
+		write(bb);
+		
+		OUT.flush();
+		LOG.trace("finished {} entries, {} bytes", count, OUT.getCount());
+	}
+	
+	private void writeLocal(ZipEntry entry, int flag) throws IOException {
+		Preconditions.checkState(! finished, "already finished");
+		Preconditions.checkArgument(entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED,
+				"%s: unsupported method %s", entry.getName(), entry.getMethod());
+		
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		Preconditions.checkArgument(name.length <= 0xFFFF, "name too long: %s", entry.getName());
+		
+		Central c = new Central(entry, name, flag | FLAG_UTF8, OUT.getCount());
+		CENTRAL.add(c);
+		
+		boolean descriptor = 0 != (flag & FLAG_DATA_DESCRIPTOR);
+		boolean zip64 = ! descriptor && (entry.getSize() >= ZIP64_MAGICVAL || entry.getCompressedSize() >= ZIP64_MAGICVAL);
+		
+		ByteBuffer bb = buffer(30 + name.length + (zip64 ? 20 : 0));
+		bb.putInt(LOCSIG);
+		bb.putShort((short) (zip64 ? VERSION_ZIP64 : version(entry)));
+		bb.putShort((short) c.FLAG);
+		bb.putShort((short) entry.getMethod());
+		bb.putInt((int) c.DOSTIME);
+		if (descriptor) {
+			bb.putInt(0);
+			bb.putInt(0);
+			bb.putInt(0);
+		} else {
+			bb.putInt((int) entry.getCrc());
+			bb.putInt((int) (zip64 ? ZIP64_MAGICVAL : entry.getCompressedSize()));
+			bb.putInt((int) (zip64 ? ZIP64_MAGICVAL : entry.getSize()));
+		}
+		bb.putShort((short) name.length);
+		bb.putShort((short) (zip64 ? 20 : 0));
+		bb.put(name);
+		if (zip64) {
+			bb.putShort((short) ZIP64_EXTID);
+			bb.putShort((short) 16);
+			bb.putLong(entry.getSize());
+			bb.putLong(entry.getCompressedSize());
+		}
+		write(bb);
+	}
+	
+	private void writeCentral(Central c) throws IOException {
+		ZipEntry e = c.ENTRY;
+		boolean
+			bigSize = e.getSize() >= ZIP64_MAGICVAL,
+			bigCsize = e.getCompressedSize() >= ZIP64_MAGICVAL,
+			bigOffset = c.OFFSET >= ZIP64_MAGICVAL;
+		int extra = (bigSize ? 8 : 0) + (bigCsize ? 8 : 0) + (bigOffset ? 8 : 0);
+		if (extra > 0)
+			extra += 4;
+		
+		ByteBuffer bb = buffer(46 + c.NAME.length + extra);
+		bb.putInt(CENSIG);
+		bb.putShort((short) (extra > 0 ? VERSION_ZIP64 : version(e)));
+		bb.putShort((short) (extra > 0 ? VERSION_ZIP64 : version(e)));
+		bb.putShort((short) c.FLAG);
+		bb.putShort((short) e.getMethod());
+		bb.putInt((int) c.DOSTIME);
+		bb.putInt((int) e.getCrc());
+		bb.putInt((int) (bigCsize ? ZIP64_MAGICVAL : e.getCompressedSize()));
+		bb.putInt((int) (bigSize ? ZIP64_MAGICVAL : e.getSize()));
+		bb.putShort((short) c.NAME.length);
+		bb.putShort((short) extra);
+		bb.putShort((short) 0);	// comment length
+		bb.putShort((short) 0);	// disk number
+		bb.putShort((short) 0);	// internal attributes
+		bb.putInt(0);			// external attributes
+		bb.putInt((int) (bigOffset ? ZIP64_MAGICVAL : c.OFFSET));
+		bb.put(c.NAME);
+		if (extra > 0) {
+			bb.putShort((short) ZIP64_EXTID);
+			bb.putShort((short) (extra - 4));
+			if (bigSize)
+				bb.putLong(e.getSize());
+			if (bigCsize)
+				bb.putLong(e.getCompressedSize());
+			if (bigOffset)
+				bb.putLong(c.OFFSET);
+		}
+		write(bb);
+	}
+	
+	private static int version(ZipEntry e) {
+		return ZipEntry.STORED == e.getMethod() ? VERSION_STORED : VERSION_DEFLATED;
+	}
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	private void write(ByteBuffer bb) throws IOException {
+		OUT.write(bb.array(), 0, bb.position());
+	}
+	
+	/**
+	 * converts java time (epoch millis) to the MS-DOS date/time packed into zip headers,
+	 * in the default time-zone, as {@link ZipEntry#setTime} does.
+	 * times before 1980 (the DOS epoch) are clamped to it, and those after 2107 (the 7-bit year's last) to that,
+	 * as java.util.zip.ZipUtils.javaToDosTime does.
+	 */
+	static long dosTime(long time) {
+		LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if (d.getYear() < 1980)
+			return DOSTIME_MIN;
+		if (d.getYear() > 2107)
+			return DOSTIME_MAX;
+		return (d.getYear() - 1980L) << 25
+				| d.getMonthValue() << 21
+				| d.getDayOfMonth() << 16
+				| d.getHour() << 11
+				| d.getMinute() << 5
+				| d.getSecond() >> 1;
+	}
+	
+	/**
+	 * the inverse of {@link #dosTime}: converts MS-DOS date/time to java time (epoch millis),
+	 * or -1 if it is not a valid date/time.
+	 */
+	static long javaTime(long dosTime) {
+		try {
+			return LocalDateTime.of(
+					(int) ((dosTime >> 25) & 0x7f) + 1980,
+					(int) ((dosTime >> 21) & 0x0f),
+					(int) ((dosTime >> 16) & 0x1f),
+					(int) ((dosTime >> 11) & 0x1f),
+					(int) ((dosTime >> 5) & 0x3f),
+					(int) ((dosTime << 1) & 0x3e))
+				.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			return -1;
+		}
+	}
+	
+	/** what the central directory must remember of each entry */
+	static class Central {
+		final ZipEntry ENTRY;
+		final byte[] NAME;
+		final int FLAG;
+		final long OFFSET, DOSTIME;
+		Central(ZipEntry entry, byte[] name, int flag, long offset) {
+			ENTRY = entry;
+			NAME = name;
+			FLAG = flag;
+			OFFSET = offset;
+			DOSTIME = dosTime(-1 == entry.getTime() ? System.currentTimeMillis() : entry.getTime());
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package org.fwb.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * throughput and latency of the zip, unzip, copy, download and delete operations,
+ * as reported to {@link Listener Listeners}: registered via {@link #addListener}, or as services
+ * (i.e. named in {@code META-INF/services/org.fwb.io.Metrics$Listener}), or by {@link #statistics()},
+ * which aggregates everything (and which {@link #registerMBeans()} publishes over JMX).
+ * 
+ * with no listener (the default), metrics cost nothing but a read of a static field per operation:
+ * instrumented code checks {@link #isEnabled()} before reading any clock.
+ * system property "org.fwb.dir.Metrics.JMX" registers the MBeans at startup.
+ */
+public class Metrics {
+	static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+	
+	public enum Operation {
+		/** per zip entry: bytes of content in, compressed bytes out */
+		ZIP,
+		/** per zip entry: compressed bytes in, bytes of content out */
+		UNZIP,
+		/** per file copied */
+		COPY,
+		/** per URL downloaded */
+		DOWNLOAD,
+		/** per tree deleted: items are the paths deleted, and no bytes */
+		DELETE
+	}
+	public enum Phase {
+		/** opening the source and/or target */
+		OPEN,
+		DEFLATE,
+		INFLATE,
+		/** writing (e.g. already compressed data) */
+		WRITE,
+		/** closing, i.e. flushing whatever remains */
+		CLOSE
+	}
+	
+	/** receives metrics, upon whichever thread did the work; so must be thread-safe, and quick */
+	public interface Listener {
+		/**
+		 * some items (e.g. a zip entry, or a tree's files) were processed
+		 * @param bytesIn read, e.g. uncompressed for a zip
+		 * @param bytesOut written, e.g. compressed for a zip
+		 */
+		void completed(Operation op, long items, long bytesIn, long bytesOut, long nanos);
+		/** a phase of processing an item took the given time */
+		void phase(Operation op, Phase phase, long nanos);
+	}
+	
+	static final List<Listener> LISTENERS = new CopyOnWriteArrayList<Listener>();
+	/** whether there are any LISTENERS */
+	static volatile boolean enabled = false;
+	static Statistics statistics = null;
+	static boolean registered = false;
+	
+	static {
+		// n.b. a bad provider mustn't break the (many) classes which report metrics
+		for (Iterator<Listener> i = ServiceLoader.load(Listener.class).iterator(); hasNext(i); )
+			try {
+				addListener(i.next());
+			} catch (ServiceConfigurationError e) {
+				LOG.error("ignoring metrics listener: {}", e);
+			}
+		if (Boolean.getBoolean("org.fwb.dir.Metrics.JMX"))
+			registerMBeans();
+	}
+	
+	@Deprecated private Metrics() {}
+	
+	static boolean hasNext(Iterator<Listener> i) {
+		try {
+			return i.hasNext();
+		} catch (ServiceConfigurationError e) {
+			LOG.error("ignoring metrics listeners: {}", e);
+			return false;
+		}
+	}
+	
+	/** whether to measure anything, i.e. whether there is any listener */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	public static synchronized void addListener(Listener l) {
+		LISTENERS.add(l);
+		enabled = true;
+	}
+	/** n.b. removing {@link #statistics()} discards it (and its MBeans); the next call starts afresh */
+	public static synchronized void removeListener(Listener l) {
+		LISTENERS.remove(l);
+		enabled = ! LISTENERS.isEmpty();
+		if (l == statistics) {
+			unregisterMBeans();
+			statistics = null;
+		}
+	}
+	
+	public static void completed(Operation op, long items, long bytesIn, long bytesOut, long nanos) {
+		for (Listener l : LISTENERS)
+			l.completed(op, items, bytesIn, bytesOut, nanos);
+	}
+	public static void phase(Operation op, Phase phase, long nanos) {
+		for (Listener l : LISTENERS)
+			l.phase(op, phase, nanos);
+	}
+	
+	/** the aggregate of all metrics since first called (which enables them) */
+	public static synchronized Statistics statistics() {
+		if (null == statistics) {
+			statistics = new Statistics();
+			addListener(statistics);
+		}
+		return statistics;
+	}
+	
+	/** publishes {@link #statistics()} as an MBean per operation, named e.g. "org.fwb.io:type=Metrics,operation=ZIP" */
+	public static synchronized void registerMBeans() {
+		if (registered)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Map.Entry<Operation, Stats> e : statistics().STATS.entrySet())
+				server.registerMBean(new StandardMBean(e.getValue(), StatsMBean.class), name(e.getKey()));
+			registered = true;
+		} catch (JMException e) {
+			LOG.warn("unable to register metrics MBeans: {}", e);
+		}
+	}
+	public static synchronized void unregisterMBeans() {
+		if (! registered)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Operation op : Operation.values())
+			try {
+				server.unregisterMBean(name(op));
+			} catch (JMException e) {
+				LOG.trace("unable to unregister {}: {}", op, e);
+			}
+		registered = false;
+	}
+	public static ObjectName name(Operation op) throws JMException {
+		return new ObjectName("org.fwb.io:type=Metrics,operation=" + op);
+	}
+	
+	/** aggregates each operation's metrics into {@link Stats} */
+	public static class Statistics implements Listener {
+		final Map<Operation, Stats> STATS = new EnumMap<Operation, Stats>(Operation.class);
+		Statistics() {
+			for (Operation op : Operation.values())
+				STATS.put(op, new Stats());
+		}
+		
+		public Stats get(Operation op) {
+			return STATS.get(op);
+		}
+		
+		@Override
+		public void completed(Operation op, long items, long bytesIn, long bytesOut, long nanos) {
+			STATS.get(op).completed(items, bytesIn, bytesOut, nanos);
+		}
+		@Override
+		public void phase(Operation op, Phase phase, long nanos) {
+			STATS.get(op).PHASES[phase.ordinal()].add(nanos);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Statistics%s", STATS);
+		}
+	}
+	
+	/** the JMX view of an operation's {@link Stats} */
+	public interface StatsMBean {
+		/** completions, e.g. zip entries or downloads */
+		long getCount();
+		/** items, e.g. as {@link #getCount()} but for deletes, which count each path */
+		long getItems();
+		long getBytesIn();
+		long getBytesOut();
+		/** out per in, e.g. the compressed fraction for a zip */
+		double getCompressionRatio();
+		/** in per second of latency (i.e. per thread, if in parallel) */
+		double getBytesPerSecond();
+		long getTotalMillis();
+		long getOpenMillis();
+		long getDeflateMillis();
+		long getInflateMillis();
+		long getWriteMillis();
+		long getCloseMillis();
+		/** counts of latencies by power of 2 nanoseconds, i.e. [i] counts those of [2^i, 2^(i+1)) ns */
+		long[] getLatencyHistogram();
+		/** the median latency, to within a factor of 2 (as per the histogram) */
+		long getLatencyMedianMicros();
+		long getLatency99Micros();
+		void reset();
+	}
+	
+	/** an operation's totals, and its latency histogram */
+	public static class Stats implements StatsMBean {
+		final LongAdder
+			COUNT = new LongAdder(),
+			ITEMS = new LongAdder(),
+			BYTES_IN = new LongAdder(),
+			BYTES_OUT = new LongAdder(),
+			NANOS = new LongAdder();
+		final LongAdder[] PHASES = new LongAdder[Phase.values().length];
+		final AtomicLongArray HISTOGRAM = new AtomicLongArray(64);
+		Stats() {
+			for (int i = 0; i < PHASES.length; ++i)
+				PHASES[i] = new LongAdder();
+		}
+		
+		void completed(long items, long bytesIn, long bytesOut, long nanos) {
+			COUNT.increment();
+			ITEMS.add(items);
+			BYTES_IN.add(bytesIn);
+			BYTES_OUT.add(bytesOut);
+			NANOS.add(nanos);
+			HISTOGRAM.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+		}
+		
+		@Override
+		public long getCount() {
+			return COUNT.sum();
+		}
+		@Override
+		public long getItems() {
+			return ITEMS.sum();
+		}
+		@Override
+		public long getBytesIn() {
+			return BYTES_IN.sum();
+		}
+		@Override
+		public long getBytesOut() {
+			return BYTES_OUT.sum();
+		}
+		@Override
+		public double getCompressionRatio() {
+			long in = BYTES_IN.sum();
+			return 0 == in ? Double.NaN : (double) BYTES_OUT.sum() / in;
+		}
+		@Override
+		public double getBytesPerSecond() {
+			long nanos = NANOS.sum();
+			return 0 == nanos ? Double.NaN : BYTES_IN.sum() * 1e9 / nanos;
+		}
+		@Override
+		public long getTotalMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(NANOS.sum());
+		}
+		public long getPhaseNanos(Phase phase) {
+			return PHASES[phase.ordinal()].sum();
+		}
+		@Override
+		public long getOpenMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.OPEN));
+		}
+		@Override
+		public long getDeflateMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.DEFLATE));
+		}
+		@Override
+		public long getInflateMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.INFLATE));
+		}
+		@Override
+		public long getWriteMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.WRITE));
+		}
+		@Override
+		public long getCloseMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.CLOSE));
+		}
+		@Override
+		public long[] getLatencyHistogram() {
+			long[] retVal = new long[HISTOGRAM.length()];
+			for (int i = 0; i < retVal.length; ++i)
+				retVal[i] = HISTOGRAM.get(i);
+			return retVal;
+		}
+		@Override
+		public long getLatencyMedianMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(percentile(0.5));
+		}
+		@Override
+		public long getLatency99Micros() {
+			return TimeUnit.NANOSECONDS.toMicros(percentile(0.99));
+		}
+		/** the upper bound of the histogram bucket holding the given fraction of latencies, in nanoseconds */
+		public long percentile(double fraction) {
+			long[] histogram = getLatencyHistogram();
+			long total = 0;
+			for (long count : histogram)
+				total += count;
+			long seen = 0;
+			for (int i = 0; i < histogram.length; ++i) {
+				seen += histogram[i];
+				if (seen > 0 && seen >= fraction * total)
+					return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+			}
+			return 0;
+		}
+		@Override
+		public void reset() {
+			COUNT.reset();
+			ITEMS.reset();
+			BYTES_IN.reset();
+			BYTES_OUT.reset();
+			NANOS.reset();
+			for (LongAdder phase : PHASES)
+				phase.reset();
+			for (int i = 0; i < HISTOGRAM.length(); ++i)
+				HISTOGRAM.set(i, 0);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Stats(%s: %s items, %s bytes in, %s out, %sms)",
+					COUNT.sum(), ITEMS.sum(), BYTES_IN.sum(), BYTES_OUT.sum(), getTotalMillis());
+		}
+	}
+}
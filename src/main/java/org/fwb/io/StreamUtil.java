@@ -1,13 +1,34 @@
 package org.fwb.io;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.io.ByteStreams;
 
 public class StreamUtil {
+	static final Logger LOG = LoggerFactory.getLogger(StreamUtil.class);
+	
 	/** @deprecated static utilities only */
 	@Deprecated
 	private StreamUtil() { }
@@ -18,10 +39,247 @@ public class StreamUtil {
 	 * to which this delegates.
 	 */
 	public static long copy(URL from, OutputStream to) throws IOException {
+		boolean timed = Metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+		long retVal;
 		InputStream is = from.openStream(); try {
-			return ByteStreams.copy(is, to);
+			retVal = ByteStreams.copy(is, to);
 		} finally {
 			is.close();
 		}
+		if (timed)
+			Metrics.completed(Metrics.Operation.DOWNLOAD, 1, retVal, retVal, System.nanoTime() - start);
+		return retVal;
+	}
+	
+	/** the default number of segments of {@link #copy(URL, File, int, ExecutorService)} */
+	public static final int SEGMENTS = Integer.getInteger("org.fwb.dir.StreamUtil.SEGMENTS", 4);
+	/** the least bytes per segment, i.e. anything smaller than two of these is downloaded as a single stream */
+	public static final long SEGMENT_MIN = Long.getLong("org.fwb.dir.StreamUtil.SEGMENT_MIN", 4 << 20);
+	/** the times each segment is retried (from where it failed) before the download fails */
+	static final int RETRIES = Integer.getInteger("org.fwb.dir.StreamUtil.RETRIES", 3);
+	static final int SEGMENT_BUFFER = 1 << 16;
+	
+	/**
+	 * copies a URL's content into a file: an HTTP(S) URL whose server supports byte ranges
+	 * is downloaded as (up to) the given number of ranges, in parallel upon the given executor,
+	 * each written at its own position in the file.
+	 * a segment which fails is retried from where it failed, up to {@link #RETRIES} times;
+	 * and the total must match the length the server gave.
+	 * every segment (and retry) is tied to the version of the content first seen, by its validator
+	 * (its strong ETag, else its Last-Modified) sent as If-Range; should the content change meanwhile, the copy fails
+	 * rather than mix versions.
+	 * otherwise (i.e. any other URL, a server without ranges or validators,
+	 * or content smaller than two {@link #SEGMENT_MIN segments}) this copies a single stream.
+	 * 
+	 * @return the bytes copied
+	 */
+	public static long copy(URL from, File to, int segments, ExecutorService executor) throws IOException {
+		boolean timed = Metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+		long retVal = download(from, to, segments, executor);
+		if (timed)
+			Metrics.completed(Metrics.Operation.DOWNLOAD, 1, retVal, retVal, System.nanoTime() - start);
+		return retVal;
+	}
+	static long download(URL from, File to, int segments, ExecutorService executor) throws IOException {
+		FileChannel out = FileChannel.open(to.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING); try {
+			URLConnection c = from.openConnection();
+			if (segments > 1 && c instanceof HttpURLConnection) {
+				// probe for ranges, and the length
+				HttpURLConnection http = (HttpURLConnection) c;
+				http.setRequestProperty("Range", "bytes=0-0");
+				try {
+					if (HttpURLConnection.HTTP_OK == http.getResponseCode()) {
+						LOG.trace("no ranges from {}, copying a single stream", from);
+						return transfer(http.getInputStream(), out);
+					}
+					if (HttpURLConnection.HTTP_PARTIAL == http.getResponseCode()) {
+						long length = length(http.getHeaderField("Content-Range"));
+						int n = (int) Math.min(segments, length / SEGMENT_MIN);
+						String validator = validator(http);
+						if (null == validator)
+							LOG.trace("no validator from {}, copying a single stream", from);
+						else if (n > 1)
+							return copy(from, out, length, n, validator, executor);
+					}
+				} finally {
+					http.disconnect();
+				}
+				c = from.openConnection();
+			}
+			return transfer(c.getInputStream(), out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	static long copy(URL from, FileChannel out, long length, int n, String validator, ExecutorService executor) throws IOException {
+		LOG.trace("start copy({}): {} bytes in {} segments", from, length, n);
+		long size = (length + n - 1) / n;
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(n);
+		for (long start = 0; start < length; start += size)
+			futures.add(executor.submit(new Segment(from, out, start, Math.min(length, start + size), length, validator)));
+		
+		// n.b. every segment finishes (or is cancelled) before the file is closed
+		long retVal = 0;
+		IOException failure = null;
+		for (Future<Long> f : futures)
+			try {
+				retVal += f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = new IOException("interrupted downloading " + from, e);
+				cancel(futures);
+			} catch (ExecutionException e) {
+				if (null == failure)
+					failure = e.getCause() instanceof IOException
+							? (IOException) e.getCause()
+							: new IOException(e.getCause());
+				cancel(futures);
+			} catch (CancellationException e) {
+				// as cancelled upon an earlier failure
+			}
+		if (null != failure)
+			throw failure;
+		if (length != retVal || length != out.size())
+			throw new EOFException(String.format("expected %s bytes from %s, got %s", length, from, retVal));
+		LOG.trace("end copy({})", from);
+		return retVal;
+	}
+	
+	/** cancels those not yet started; n.b. not interrupting, which would close the shared channel */
+	static void cancel(List<Future<Long>> futures) {
+		for (Future<Long> f : futures)
+			f.cancel(false);
+	}
+	
+	/**
+	 * what identifies this version of the content, for If-Range: the ETag, if strong (If-Range can't use a weak one),
+	 * else the Last-Modified; or null if neither
+	 */
+	static String validator(URLConnection c) {
+		String retVal = c.getHeaderField("ETag");
+		if (null == retVal || retVal.startsWith("W/"))
+			retVal = c.getHeaderField("Last-Modified");
+		return retVal;
+	}
+	
+	/** the total length from a Content-Range, e.g. "bytes 0-0/1234" */
+	static long length(String contentRange) throws IOException {
+		int slash = null == contentRange ? -1 : contentRange.lastIndexOf('/');
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (RuntimeException e) {
+			throw new IOException("no length in Content-Range: " + contentRange, e);
+		}
+	}
+	
+	static long transfer(InputStream from, FileChannel to) throws IOException {
+		ReadableByteChannel in = Channels.newChannel(from); try {
+			return to.transferFrom(in, 0, Long.MAX_VALUE);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/** downloads a range, [START, END), into its position in the file */
+	static class Segment implements Callable<Long> {
+		final URL URL;
+		final FileChannel OUT;
+		final long START, END, LENGTH;
+		/** the validator of the content's version, sent as If-Range */
+		final String VALIDATOR;
+		/** the bytes written, over every attempt */
+		long written = 0;
+		Segment(URL url, FileChannel out, long start, long end, long length, String validator) {
+			URL = url;
+			OUT = out;
+			START = start;
+			END = end;
+			LENGTH = length;
+			VALIDATOR = validator;
+		}
+		
+		@Override
+		public Long call() throws IOException {
+			ByteBuffer bb = ByteBuffer.allocate(SEGMENT_BUFFER);
+			long position = START;
+			for (int attempt = 0; position < END; ++attempt)
+				try {
+					position = download(position, bb);
+				} catch (IOException e) {
+					if (attempt >= RETRIES || e instanceof Changed)
+						throw e;
+					LOG.trace("retrying {} from {}: {}", URL, position, e);
+					// from wherever the last attempt got to
+					position = e instanceof Progress ? ((Progress) e).POSITION : position;
+				}
+			return written;
+		}
+		
+		/** downloads from the given position to the end of the segment, returning the end */
+		long download(long position, ByteBuffer bb) throws IOException {
+			HttpURLConnection c = (HttpURLConnection) URL.openConnection();
+			c.setRequestProperty("Range", "bytes=" + position + "-" + (END - 1));
+			c.setRequestProperty("If-Range", VALIDATOR);
+			try {
+				// n.b. If-Range yields the whole (i.e. changed) content, rather than the range, if it no longer matches
+				if (HttpURLConnection.HTTP_OK == c.getResponseCode() || ! VALIDATOR.equals(validator(c)))
+					throw new Changed(String.format("%s changed during download: %s, was %s", URL, validator(c), VALIDATOR));
+				if (HttpURLConnection.HTTP_PARTIAL != c.getResponseCode())
+					throw new IOException(String.format("HTTP %s for %s bytes %s-%s", c.getResponseCode(), URL, position, END - 1));
+				String range = c.getHeaderField("Content-Range");
+				if (LENGTH != length(range) || ! range.startsWith("bytes " + position + "-"))
+					throw new IOException(String.format("expected bytes %s-%s/%s of %s, got %s", position, END - 1, LENGTH, URL, range));
+				InputStream is = c.getInputStream(); try {
+					ReadableByteChannel in = Channels.newChannel(is);
+					while (position < END) {
+						bb.clear();
+						bb.limit((int) Math.min(bb.capacity(), END - position));
+						int n;
+						try {
+							n = in.read(bb);
+						} catch (IOException e) {
+							throw new Progress(position, e);
+						}
+						if (n < 0)
+							throw new Progress(position, new EOFException(String.format("%s ended at %s of %s", URL, position, END)));
+						bb.flip();
+						while (bb.hasRemaining()) {
+							int w = OUT.write(bb, position);
+							position += w;
+							written += w;
+						}
+					}
+				} finally {
+					is.close();
+				}
+			} finally {
+				c.disconnect();
+			}
+			return position;
+		}
+	}
+	
+	/** the content changed during the download, so retrying is futile */
+	static class Changed extends IOException {
+		private static final long serialVersionUID = 1;
+		
+		Changed(String message) {
+			super(message);
+		}
+	}
+	
+	/** a read which failed part way through a segment, and how far it got */
+	static class Progress extends IOException {
+		private static final long serialVersionUID = 1;
+		
+		final long POSITION;
+		Progress(long position, IOException cause) {
+			super(cause.getMessage(), cause);
+			POSITION = position;
+		}
 	}
 }
@@ -1,9 +1,42 @@
 package test.fwb.file;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.fwb.file.Checksum;
+import org.fwb.file.ChecksumIndex;
+import org.fwb.file.FileColumns;
+import org.fwb.file.FileProperty.FileField;
+import org.fwb.file.FileSnapshot;
+import org.fwb.file.FileTableWriter;
+import org.fwb.file.FileTableWriter.Format;
 import org.fwb.file.FileUtil;
+import org.fwb.file.SaveBatch;
+import org.fwb.file.dir.TempDirectory;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestFileUtil {
 	@Test
@@ -11,4 +44,266 @@ public class TestFileUtil {
 		assertEquals("1.0G", FileUtil.getSizeString(1234567890));
 		assertEquals("941.0M", FileUtil.getSizeString(987654321));
 	}
+	
+	/** fields of a snapshot should equal those of the File itself (modification times to the second) */
+	@Test
+	public void testFileColumns() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			File data = new File(td, "data.txt"), hidden = new File(td, ".hidden"), missing = new File(td, "missing");
+			FileOutputStream os = new FileOutputStream(data); try {
+				os.write(new byte[1234]);
+			} finally {
+				os.close();
+			}
+			hidden.mkdir();
+			List<File> files = Arrays.<File>asList(td, data, hidden, missing);
+			
+			FileColumns fc = new FileColumns(files, FileField.values());
+			assertEquals(4, fc.size());
+			for (int i = 0; i < files.size(); ++i) {
+				File f = files.get(i);
+				FileSnapshot s = new FileSnapshot(f);
+				for (FileField field : FileField.values())
+					assertEquals(field + " of " + f, seconds(field, field.apply(f)), seconds(field, field.apply(s)));
+				assertEquals(f.length(), fc.getLongs(FileField.length)[i]);
+				assertEquals(f.lastModified() / 1000, fc.getLongs(FileField.lastModified)[i] / 1000);
+				assertEquals(f.isDirectory(), fc.getBooleans(FileField.isDirectory)[i]);
+				assertEquals(f.isHidden(), fc.getBooleans(FileField.hidden)[i]);
+			}
+			assertArrayEquals(new Object[] {td.getName(), "data.txt", ".hidden", "missing"}, fc.getObjects(FileField.name));
+		} finally {
+			td.close();
+		}
+	}
+	/** a modification time truncated to whole seconds (as File.lastModified is on some runtimes), else the value itself */
+	static Object seconds(FileField field, Object value) {
+		switch (field) {
+		case lastModified:
+			return (Long) value / 1000;
+		case lastModifiedDate:
+			return ((Date) value).getTime() / 1000;
+		default:
+			return value;
+		}
+	}
+	
+	/** the writer's (unallocated) formatting should match that of the FileFields */
+	@Test
+	public void testFileTableWriter() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			File odd = new File(td, "say \"a,b\".txt");
+			FileOutputStream os = new FileOutputStream(odd); try {
+				os.write(new byte[5000]);
+			} finally {
+				os.close();
+			}
+			FileField[] columns = {FileField.name, FileField.extension, FileField.length,
+					FileField.lengthString, FileField.lastModifiedString, FileField.isDirectory};
+			
+			StringWriter csv = new StringWriter();
+			FileTableWriter w = new FileTableWriter(csv, Format.CSV, columns); try {
+				w.writeHeader();
+				assertEquals(2, w.writeTree(td));
+			} finally {
+				w.close();
+			}
+			assertEquals(String.format("name,extension,length,lengthString,lastModifiedString,isDirectory%n"
+					+ "%s,tmpdir,%s,%s,%s,true%n"
+					+ "\"say \"\"a,b\"\".txt\",txt,5000,%s,%s,false%n",
+					td.getName(), td.length(), FileField.lengthString.apply(td), FileField.lastModifiedString.apply(td),
+					FileField.lengthString.apply(odd), FileField.lastModifiedString.apply(odd)).replace("\r\n", "\n"),
+					csv.toString());
+			
+			StringWriter jsonl = new StringWriter();
+			w = new FileTableWriter(jsonl, Format.JSONL, FileField.name, FileField.length, FileField.hidden); try {
+				w.write(odd);
+			} finally {
+				w.close();
+			}
+			assertEquals("{\"name\":\"say \\\"a,b\\\".txt\",\"length\":5000,\"hidden\":false}\n", jsonl.toString());
+		} finally {
+			td.close();
+		}
+	}
+	
+	/** checksums should be right (mapped or read), and cached across instances until a file changes */
+	@Test
+	public void testChecksumIndex() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			Random r = new Random(0);
+			List<File> files = new ArrayList<File>();
+			for (int length : new int[] {0, 100, 100000, 3 << 20}) {
+				byte[] content = new byte[length];
+				r.nextBytes(content);
+				File f = new File(td, "f" + length);
+				Files.write(content, f);
+				files.add(f);
+				assertEquals(Hashing.sha256().hashBytes(content).toString(), Checksum.sha256.hash(f));
+				assertEquals(String.format("%08x", Hashing.crc32().hashBytes(content).padToLong()), Checksum.crc32.apply(f));
+			}
+			
+			File sidecar = new File(td, ".checksums");
+			ExecutorService executor = Executors.newFixedThreadPool(4); try {
+				ChecksumIndex index = new ChecksumIndex(sidecar);
+				Map<File, String> first = index.get(files, Checksum.sha256, executor);
+				assertEquals(4, index.getMisses());
+				index.save();
+				
+				Files.write(new byte[] {1, 2, 3}, files.get(1));
+				index = new ChecksumIndex(sidecar);
+				Map<File, String> second = index.get(files, Checksum.sha256, executor);
+				assertEquals("only the changed file should be re-hashed", 1, index.getMisses());
+				assertEquals(3, index.getHits());
+				assertEquals(first.get(files.get(3)), second.get(files.get(3)));
+				assertEquals(Checksum.sha256.hash(files.get(1)), second.get(files.get(1)));
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			td.close();
+		}
+	}
+	
+	/** each copy path (file, positioned file stream, other stream, file URL) should copy exactly */
+	@Test
+	public void testCopy() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			byte[] content = new byte[(3 << 20) + 12345];
+			new Random(0).nextBytes(content);
+			File from = new File(td, "from");
+			Files.write(content, from);
+			
+			File to = new File(td, "to");
+			FileUtil.Transfer t = FileUtil.copy(from, to);
+			assertEquals(content.length, t.BYTES);
+			assertArrayEquals(content, Files.toByteArray(to));
+			
+			FileInputStream fis = new FileInputStream(from); try {
+				assertEquals(100, fis.skip(100));
+				assertEquals(content.length - 100, FileUtil.save(fis, to));
+				assertEquals("the stream should be consumed", -1, fis.read());
+			} finally {
+				fis.close();
+			}
+			assertArrayEquals(Arrays.copyOfRange(content, 100, content.length), Files.toByteArray(to));
+			
+			assertEquals(content.length, FileUtil.save(new ByteArrayInputStream(content), to));
+			assertArrayEquals(content, Files.toByteArray(to));
+			
+			Files.write(new byte[0], to);
+			assertEquals(content.length, FileUtil.save(from.toURI().toURL(), to));
+			assertArrayEquals(content, Files.toByteArray(to));
+		} finally {
+			td.close();
+		}
+	}
+	
+	/** a file whose size is no guide to its content (e.g. in /proc) should still be copied whole */
+	@Test
+	public void testCopyUnsized() throws Exception {
+		File proc = new File("/proc/self/stat");
+		Assume.assumeTrue("no /proc here", proc.isFile() && 0 == proc.length());
+		TempDirectory td = new TempDirectory(); try {
+			File to = new File(td, "to");
+			assertTrue(FileUtil.copy(proc, to).BYTES > 0);
+			assertTrue(to.length() > 0);
+			
+			FileInputStream fis = new FileInputStream(proc); try {
+				assertTrue(FileUtil.save(fis, to) > 0);
+			} finally {
+				fis.close();
+			}
+			assertTrue(to.length() > 0);
+			
+			// nor should a subclass overriding read be bypassed
+			byte[] content = {1, 2, 3};
+			File from = new File(td, "from");
+			Files.write(content, from);
+			fis = new FileInputStream(from) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					for (int i = off; i < off + n; ++i)
+						b[i] *= 2;
+					return n;
+				}
+			}; try {
+				assertEquals(3, FileUtil.save(fis, to));
+			} finally {
+				fis.close();
+			}
+			assertArrayEquals(new byte[] {2, 4, 6}, Files.toByteArray(to));
+		} finally {
+			td.close();
+		}
+	}
+	
+	/** each mode should leave the same files, and no temporary ones, yet only once committed */
+	@Test
+	public void testSaveBatch() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		TempDirectory td = new TempDirectory(); try {
+			for (SaveBatch.Sync sync : SaveBatch.Sync.values()) {
+				File dir = new File(td, sync.name());
+				File[] dirs = {new File(dir, "a"), new File(dir, "b")};
+				for (File d : dirs)
+					d.mkdirs();
+				SaveBatch batch = new SaveBatch(sync, executor); try {
+					for (int i = 0; i < 50; ++i)
+						batch.save(("content" + i).getBytes(), new File(dirs[i % 2], "f" + i));
+					assertEquals(50, batch.getSaved());
+					if (SaveBatch.Sync.FILE == sync) {
+						assertEquals(50, batch.getCommitted());
+					} else {
+						assertEquals(50, batch.getPending());
+						assertFalse("not yet committed", new File(dirs[0], "f0").exists());
+						assertEquals(50, batch.commit());
+					}
+					// a file saved twice in a batch is committed once, as last saved
+					batch.save("old".getBytes(), new File(dirs[0], "twice"));
+					batch.save("new".getBytes(), new File(dirs[0], "twice"));
+				} finally {
+					batch.close();
+				}
+				assertEquals(0, batch.getPending());
+				assertTrue(batch.toString(), SaveBatch.Sync.NONE == sync ? 0 == batch.getSyncs() : 52 <= batch.getSyncs());
+				for (int i = 0; i < 50; ++i)
+					assertEquals("content" + i, Files.toString(new File(dirs[i % 2], "f" + i), Charsets.UTF_8));
+				assertEquals("new", Files.toString(new File(dirs[0], "twice"), Charsets.UTF_8));
+				assertEquals("no temporary files should remain", 26, dirs[0].list().length);
+				assertEquals(25, dirs[1].list().length);
+			}
+			
+			SaveBatch batch = new SaveBatch(SaveBatch.Sync.BATCH);
+			batch.save(new byte[10], new File(td, "aborted"));
+			batch.abort();
+			batch.close();
+			assertFalse(new File(td, "aborted").exists());
+			assertEquals(3, td.list().length);
+			
+			// a move failing part way through a commit: those before it are committed (and their directory synced)
+			File partial = new File(td, "partial"), blocked = new File(partial, "blocked");
+			assertTrue(new File(blocked, "child").mkdirs());
+			batch = new SaveBatch(SaveBatch.Sync.BATCH);
+			batch.save(new byte[10], new File(partial, "first"));
+			batch.save(new byte[10], blocked);
+			batch.save(new byte[10], new File(partial, "last"));
+			long syncs = batch.getSyncs();
+			try {
+				batch.commit();
+				fail("a non-empty directory can't be replaced");
+			} catch (IOException e) {
+				// as expected
+			}
+			assertEquals(1, batch.getCommitted());
+			assertEquals(0, batch.getPending());
+			assertTrue(new File(partial, "first").isFile());
+			assertFalse(new File(partial, "last").exists());
+			assertTrue("the files and the directory should be synced", syncs + 4 <= batch.getSyncs());
+			assertEquals("no temporary files should remain", 2, partial.list().length);
+		} finally {
+			td.close();
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,123 @@
+package test.fwb.file.dir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.fwb.file.dir.DirectoryUtility;
+import org.fwb.file.dir.DirectoryUtility.CopyMode;
+import org.fwb.file.dir.DirectoryUtility.CopyResult;
+import org.fwb.file.dir.DirectoryUtility.DeleteResult;
+import org.fwb.file.dir.FileFilters;
+import org.fwb.file.dir.TempDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestDirectoryUtility {
+	static Logger LOG = LoggerFactory.getLogger(TestDirectoryUtility.class);
+	
+	/** the parallel delete should delete everything, and count it */
+	@Test
+	public void testParallelDelete() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			for (int i = 0; i < 10; ++i) {
+				File dir = new File(td, "dir" + i + "/sub" + (i % 3));
+				Assert.assertTrue(dir.mkdirs());
+				for (int j = 0; j < 100; ++j)
+					Assert.assertTrue(new File(dir, "file" + j).createNewFile());
+			}
+			Assert.assertTrue(new File(td, "dir0/empty").mkdir());
+			
+			ForkJoinPool pool = new ForkJoinPool(4); try {
+				DeleteResult result = DirectoryUtility.deleteDirectory(td, pool);
+				Assert.assertTrue("nothing should have failed: " + result.getFailed(), result.isSuccess());
+				Assert.assertFalse("the TempDirectory shouldn't exist after deletion", td.exists());
+				Assert.assertEquals(1000, result.getLeaves());
+				Assert.assertEquals("the root, 10 dirs, 10 subs and 1 empty", 22, result.getDirectories());
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			// only if an assertion failed before (or despite) the delete
+			if (td.exists())
+				td.close();
+		}
+	}
+	
+	/** each mode should reproduce the filtered tree, with its modification times */
+	@Test
+	public void testCopyDirectory() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			File from = new File(td, "from");
+			for (int i = 0; i < 3; ++i)
+				for (int j = 0; j < 100; ++j)
+					write(new File(from, "dir" + i + "/sub/f" + j + ".dat"), j);
+			write(new File(from, "skip.tmp"), 10);
+			// mostly holes, with data in the middle
+			File sparse = new File(from, "sparse.dat");
+			write(sparse, 1 << 16);
+			RandomAccessFile raf = new RandomAccessFile(sparse, "rw"); try {
+				raf.seek(1 << 15);
+				raf.write(new byte[] {1, 2, 3});
+			} finally {
+				raf.close();
+			}
+			Assert.assertTrue(new File(from, "empty").mkdir());
+			long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+			old -= old % 1000;
+			Assert.assertTrue(sparse.setLastModified(old));
+			Assert.assertTrue(new File(from, "dir1").setLastModified(old));
+			
+			ForkJoinPool pool = new ForkJoinPool(4); try {
+				for (CopyMode mode : CopyMode.values()) {
+					File to = new File(td, mode.name());
+					CopyResult result = DirectoryUtility.copyDirectory(from, to, FileFilters.extensions("dat"), mode, pool);
+					LOG.info("{}", result);
+					Assert.assertTrue("nothing should have failed: " + result.getFailed(), result.isSuccess());
+					Assert.assertEquals(301, result.getLeaves() + result.getLinks());
+					Assert.assertEquals("the root, 3 dirs, 3 subs and 1 empty", 8, result.getDirectories());
+					Assert.assertFalse("filtered out", new File(to, "skip.tmp").exists());
+					Assert.assertTrue(new File(to, "empty").isDirectory());
+					Assert.assertEquals(42, new File(to, "dir2/sub/f42.dat").length());
+					Assert.assertArrayEquals(Files.readAllBytes(sparse.toPath()), Files.readAllBytes(new File(to, "sparse.dat").toPath()));
+					Assert.assertEquals(old, new File(to, "sparse.dat").lastModified());
+					Assert.assertEquals(old, new File(to, "dir1").lastModified());
+					if (CopyMode.LINK == mode)
+						Assert.assertTrue(Files.isSameFile(sparse.toPath(), new File(to, "sparse.dat").toPath()));
+				}
+				
+				// re-linking over an existing link mustn't clobber the source
+				CopyResult again = DirectoryUtility.copyDirectory(from, new File(td, CopyMode.LINK.name()), null, CopyMode.COPY, pool);
+				Assert.assertTrue(again.isSuccess());
+				Assert.assertEquals(1 << 16, sparse.length());
+				Assert.assertFalse(Files.isSameFile(sparse.toPath(), new File(td, "LINK/sparse.dat").toPath()));
+				Assert.assertTrue(new File(td, "LINK/skip.tmp").isFile());
+				
+				try {
+					DirectoryUtility.copyDirectory(from, new File(from, "dir0/../copy"), null, CopyMode.COPY, pool);
+					Assert.fail("a directory shouldn't be copied into itself");
+				} catch (IllegalArgumentException e) {
+					Assert.assertFalse(new File(from, "copy").exists());
+				}
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			td.close();
+		}
+	}
+	static void write(File f, int length) throws IOException {
+		f.getParentFile().mkdirs();
+		FileOutputStream os = new FileOutputStream(f); try {
+			os.write(new byte[length]);
+		} finally {
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package test.fwb.file.dir;
+
+import java.io.File;
+
+import org.fwb.file.dir.DiskUsage;
+import org.fwb.file.dir.TempDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestDiskUsage {
+	static Logger LOG = LoggerFactory.getLogger(TestDiskUsage.class);
+	
+	/** a rescan should reuse unchanged directories, yet see changes deep within them */
+	@Test
+	public void testDiskUsage() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			for (int i = 0; i < 4; ++i)
+				for (int j = 0; j < 10; ++j)
+					TestDirectoryUtility.write(new File(td, "dir" + i + "/sub/f" + j), 100 * i);
+			TestDirectoryUtility.write(new File(td, "top"), 7);
+			
+			DiskUsage du = new DiskUsage();
+			DiskUsage.Usage usage = du.scan(td);
+			Assert.assertEquals(41, usage.FILES);
+			Assert.assertEquals(10 * (0 + 100 + 200 + 300) + 7, usage.BYTES);
+			Assert.assertEquals("the root, 4 dirs and 4 subs", 9, usage.DIRECTORIES);
+			Assert.assertEquals(2000, usage.get("dir2", "sub").BYTES);
+			Assert.assertEquals(9, du.getMisses());
+			
+			// deep within an otherwise unchanged tree
+			TestDirectoryUtility.write(new File(td, "dir3/sub/new"), 1000);
+			DiskUsage.Usage rescan = du.scan(td);
+			Assert.assertEquals(42, rescan.FILES);
+			Assert.assertEquals(usage.BYTES + 1000, rescan.BYTES);
+			Assert.assertEquals(4000, rescan.get("dir3").BYTES);
+			Assert.assertEquals("only dir3/sub should be re-listed", 10, du.getMisses());
+			Assert.assertEquals(8, du.getHits());
+			LOG.info("{}", rescan);
+		} finally {
+			td.close();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package test.fwb.file.dir;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fwb.file.dir.FileFilters;
+import org.fwb.file.dir.FileFilters.NameFilter;
+import org.fwb.file.dir.TempDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestFileFilters {
+	static final String[] NAMES = {"a.txt", "b.TXT", "notes.txt.bak", "Makefile", ".hidden", "img001.jpg", "img002.jpeg",
+			"x{y}.txt", "[1].log", "a,b.csv", "readme"};
+	
+	/** the glob filter should agree with the filesystem's own glob matcher */
+	@Test
+	public void testGlob() {
+		for (String glob : new String[] {"*.txt", "*.{jpg,jpeg}", "img00?.*", "[a-m]*", "[!a-m]*", "*.*", "x\\{y\\}.txt", "\\[1\\].log", "a,b.*", "*"}) {
+			PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+			NameFilter actual = FileFilters.glob(glob);
+			for (String name : NAMES)
+				Assert.assertEquals(glob + " vs " + name, expected.matches(new File(name).toPath()), actual.apply(name));
+		}
+	}
+	
+	@Test
+	public void testNameFilters() throws Exception {
+		NameFilter ext = FileFilters.extensions("txt", "jpg");
+		Assert.assertEquals(Arrays.asList("a.txt", "img001.jpg", "x{y}.txt"), filter(ext));
+		Assert.assertEquals(Arrays.asList("a.txt", "b.TXT", "img001.jpg", "x{y}.txt"), filter(FileFilters.extensions(true, "txt", "jpg")));
+		Assert.assertFalse("a dot in the parent isn't an extension", ext.accept(new File("dir.txt", "readme")));
+		Assert.assertTrue(ext.accept(new File("dir", "a.txt")));
+		
+		NameFilter prefixes = FileFilters.prefixes("img", "a", "Make", "readme.");
+		Assert.assertEquals(Arrays.asList("a.txt", "Makefile", "img001.jpg", "img002.jpeg", "a,b.csv"), filter(prefixes));
+		Assert.assertEquals(Arrays.asList("a.txt"), filter(prefixes.and(ext).and(FileFilters.regex("[^0-9]*"))));
+		Assert.assertEquals(Arrays.asList("readme"), filter(prefixes.or(ext).or(FileFilters.glob("*.*")).negate()));
+		
+		TempDirectory td = new TempDirectory(); try {
+			for (String name : NAMES)
+				Assert.assertTrue(new File(td, name).createNewFile());
+			Assert.assertTrue(new File(td, "sub.txt").mkdir());
+			
+			// the name test first, then the attribute test
+			FileFilter files = ext.then(new FileFilter() {
+				@Override
+				public boolean accept(File pathname) {
+					return pathname.isFile();
+				}
+			});
+			Assert.assertEquals(3, td.listFiles(files).length);
+			Assert.assertEquals("the name alone matches the directory too", 4, td.list(ext).length);
+			
+			List<String> streamed = new ArrayList<String>();
+			DirectoryStream<Path> ds = Files.newDirectoryStream(td.toPath(), ext); try {
+				for (Path p : ds)
+					streamed.add(p.getFileName().toString());
+			} finally {
+				ds.close();
+			}
+			Assert.assertEquals(4, streamed.size());
+		} finally {
+			td.close();
+		}
+	}
+	
+	static List<String> filter(NameFilter nf) {
+		List<String> retVal = new ArrayList<String>();
+		for (String name : NAMES)
+			if (nf.apply(name))
+				retVal.add(name);
+		return retVal;
+	}
+}
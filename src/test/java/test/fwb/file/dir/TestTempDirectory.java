@@ -2,8 +2,14 @@ package test.fwb.file.dir;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import org.fwb.file.dir.Reaper;
 import org.fwb.file.dir.TempDirectory;
+import org.fwb.file.dir.TempDirectoryPool;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -34,4 +40,89 @@ public class TestTempDirectory {
 					td.exists());
 		}
 	}
+	
+	/** an async close should remove the directory at once, and its (trashed) contents eventually */
+	@Test
+	public void testAsyncClose() throws Exception {
+		TempDirectory location = new TempDirectory(); try {
+			// abandoned trash, as of a crashed JVM (no lock held)
+			File abandoned = new File(location, ".TempDirectory.trash/crashed/1-old/leaf");
+			Assert.assertTrue(abandoned.getParentFile().mkdirs());
+			Assert.assertTrue(abandoned.createNewFile());
+			
+			TempDirectory td = new TempDirectory("TempDirectory", ".tmpdir", location);
+			Assert.assertTrue(new File(td, "sub").mkdir());
+			Assert.assertTrue(new File(td, "sub/leaf").createNewFile());
+			td.closeAsync();
+			Assert.assertFalse("the TempDirectory shouldn't exist after calling closeAsync", td.exists());
+			
+			Assert.assertTrue("the trash should be emptied", Reaper.getInstance().drain(10, TimeUnit.SECONDS));
+			File trash = new File(location, ".TempDirectory.trash");
+			for (File f : trash.listFiles())
+				if (f.isDirectory())
+					Assert.assertEquals("only this JVM's (empty) trash should remain: " + f, 0, f.list().length);
+			Assert.assertFalse("the abandoned trash should be swept", new File(trash, "crashed").exists());
+		} finally {
+			location.close();
+		}
+		
+		// a trash area which can't be created (here, as a file is in the way) should mean deleting in place
+		location = new TempDirectory(); try {
+			Assert.assertTrue(new File(location, ".TempDirectory.trash").createNewFile());
+			TempDirectory td = new TempDirectory("TempDirectory", ".tmpdir", location);
+			Assert.assertTrue(new File(td, "leaf").createNewFile());
+			td.closeAsync();
+			Assert.assertTrue("the directory should be reaped", Reaper.getInstance().drain(10, TimeUnit.SECONDS));
+			Assert.assertFalse("the directory should be deleted in place", td.exists());
+		} finally {
+			location.close();
+		}
+	}
+	
+	/** a pool should hand out empty directories, recycling empty ones and swapping out dirty ones */
+	@Test
+	public void testTempDirectoryPool() throws Exception {
+		TempDirectory location = new TempDirectory(); try {
+			TempDirectoryPool pool = new TempDirectoryPool("TempDirectory", ".tmpdir", location, 2); try {
+				TempDirectory clean = pool.take();
+				Assert.assertTrue(clean.isDirectory());
+				Assert.assertEquals(0, clean.list().length);
+				clean.close();
+				Assert.assertEquals("an empty directory should be recycled (or deleted), not trashed", 0, Reaper.getInstance().getPending());
+				
+				TempDirectory dirty = pool.take();
+				Assert.assertTrue(new File(dirty, "leaf").createNewFile());
+				dirty.close();
+				Assert.assertFalse("a dirty directory should be swapped out", dirty.exists());
+				Assert.assertTrue("the trash should be emptied", Reaper.getInstance().drain(10, TimeUnit.SECONDS));
+				
+				for (int i = 0; i < 5; ++i) {
+					TempDirectory td = pool.take();
+					Assert.assertTrue(td.isDirectory());
+					Assert.assertEquals("every directory handed out should be empty", 0, td.list().length);
+					Assert.assertTrue(new File(td, "leaf").createNewFile());
+					td.close();
+				}
+				Assert.assertTrue(Reaper.getInstance().drain(10, TimeUnit.SECONDS));
+				
+				// closing twice (by whichever means) must not stock the same directory twice
+				TempDirectory twice = pool.take();
+				twice.close();
+				twice.closeAsync();
+				twice.close(ForkJoinPool.commonPool());
+				TempDirectory a = pool.take(), b = pool.take(), c = pool.take();
+				Assert.assertTrue(a.isDirectory() && b.isDirectory() && c.isDirectory());
+				Assert.assertEquals("takes should never share a directory", 3, new HashSet<File>(Arrays.asList(a, b, c)).size());
+				a.close();
+				b.close();
+				c.close();
+			} finally {
+				pool.close();
+			}
+			for (File f : location.listFiles())
+				Assert.assertTrue("only the trash should remain: " + f, f.getName().startsWith("."));
+		} finally {
+			location.close();
+		}
+	}
 }
@@ -0,0 +1,51 @@
+package test.fwb.file.dir;
+
+import java.io.File;
+import java.util.Map;
+
+import org.fwb.file.dir.TempDirectory;
+import org.fwb.file.dir.WatchedDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestWatchedDirectory {
+	static Logger LOG = LoggerFactory.getLogger(TestWatchedDirectory.class);
+	
+	/** a watched directory map should follow changes, whether watched or polled */
+	@Test
+	public void testWatchedDirectory() throws Exception {
+		TempDirectory td = new TempDirectory(); try {
+			Assert.assertTrue(new File(td, "before").createNewFile());
+			for (boolean watch : new boolean[] {true, false}) {
+				WatchedDirectory wd = new WatchedDirectory(td, watch); try {
+					Map<String, File> map = wd.getDirectoryMap();
+					Assert.assertEquals(new File(td, "before"), map.get("before"));
+					
+					File after = new File(td, "after");
+					Assert.assertTrue(after.createNewFile());
+					Assert.assertTrue("a new file should show: " + wd, await(map, "after", true));
+					Assert.assertTrue(after.delete());
+					Assert.assertTrue("a deleted file should go: " + wd, await(map, "after", false));
+					Assert.assertTrue(map.containsKey("before"));
+					LOG.info("{}", wd);
+					Assert.assertTrue(wd.getHits() > 2);
+					Assert.assertTrue(wd.getInvalidations() >= wd.getListings());
+					// n.b. polling may re-list meanwhile, so not exactly hits / (hits + listings)
+					Assert.assertTrue(wd.getHitRate() > 0 && wd.getHitRate() < 1);
+				} finally {
+					wd.close();
+				}
+			}
+		} finally {
+			td.close();
+		}
+	}
+	static boolean await(Map<String, File> map, String name, boolean present) throws InterruptedException {
+		for (long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline; Thread.sleep(10))
+			if (map.containsKey(name) == present)
+				return true;
+		return false;
+	}
+}
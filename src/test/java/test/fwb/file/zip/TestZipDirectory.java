@@ -2,7 +2,14 @@ package test.fwb.file.zip;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.fwb.file.zip.ZipDirectory;
 import org.junit.After;
@@ -108,4 +115,47 @@ public class TestZipDirectory {
 //				"new zip should equal input zip",
 //				testZip, Files.toByteArray(zip));
 	}
+	
+	/** lazy usage: entries are only extracted upon request */
+	@Test
+	public void testLazyZipDirectory() throws Exception {
+		final ZipDirectory zd = ZipDirectory.lazy(zip); try {
+			Assert.assertTrue("should be lazy", zd.isLazy());
+			Assert.assertEquals("the index should list test.txt",
+					Collections.singleton("test.txt"), zd.getEntryNames());
+			Assert.assertEquals("nothing should be extracted upon construction",
+					0, zd.list().length);
+			
+			// concurrent requests should share one extraction
+			ExecutorService executor = Executors.newFixedThreadPool(4); try {
+				List<Future<File>> futures = new ArrayList<Future<File>>();
+				for (int i = 0; i < 8; ++i)
+					futures.add(executor.submit(new Callable<File>() {
+						@Override
+						public File call() throws IOException {
+							return zd.getFile("test.txt");
+						}
+					}));
+				for (Future<File> f : futures)
+					Assert.assertEquals("test text", Files.toString(f.get(), Charsets.UTF_8));
+			} finally {
+				executor.shutdown();
+			}
+			File txt = zd.getFile("test.txt");
+			Assert.assertEquals("test.txt should be extracted upon request",
+					"test text", Files.toString(txt, Charsets.UTF_8));
+			
+			Files.write("more text", new File(zd, "more.txt"), Charsets.UTF_8);
+			zd.zip();
+		} finally {
+			zd.close();
+		}
+		
+		ZipDirectory check = ZipDirectory.unzip(zip); try {
+			Assert.assertEquals("test text", Files.toString(new File(check, "test.txt"), Charsets.UTF_8));
+			Assert.assertEquals("more text", Files.toString(new File(check, "more.txt"), Charsets.UTF_8));
+		} finally {
+			check.close();
+		}
+	}
 }
@@ -0,0 +1,444 @@
+package test.fwb.file.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.fwb.file.dir.FileFilters;
+import org.fwb.file.dir.TempDirectory;
+import org.fwb.file.zip.CompressionPolicy;
+import org.fwb.file.zip.DedupCache;
+import org.fwb.file.zip.TreeDiff;
+import org.fwb.file.zip.ZipEngine;
+import org.fwb.file.zip.ZipIndex;
+import org.fwb.file.zip.ZipUtility;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class TestZipUtility {
+	private TempDirectory td;
+	private File src;
+	private ExecutorService executor;
+	
+	@Before
+	public void setup() throws IOException {
+		td = new TempDirectory();
+		src = new File(td, "src");
+		
+		Random r = new Random(0);
+		for (int i = 0; i < 20; ++i) {
+			File f = new File(src, "dir" + (i % 3) + "/sub" + (i % 2) + "/file" + i + ".txt");
+			f.getParentFile().mkdirs();
+			StringBuilder sb = new StringBuilder();
+			for (int j = r.nextInt(5000); j > 0; --j)
+				sb.append("line ").append(r.nextInt(100)).append('\n');
+			Files.write(sb.toString(), f, Charsets.UTF_8);
+		}
+		byte[] random = new byte[100000];
+		r.nextBytes(random);
+		Files.write(random, new File(src, "random.bin"));
+		Files.write(new byte[0], new File(src, "empty"));
+		// larger than the default PARALLEL_ENTRY_LIMIT, so streamed rather than buffered
+		byte[] large = new byte[9 << 20];
+		for (int i = 0; i < large.length; ++i)
+			large[i] = (byte) (i % 251);
+		Files.write(large, new File(src, "large.bin"));
+		
+		executor = Executors.newFixedThreadPool(4);
+	}
+	@After
+	public void teardown() throws IOException {
+		executor.shutdown();
+		td.close();
+	}
+	
+	/** the parallel zip should hold exactly what the serial zip does */
+	@Test
+	public void testParallelZip() throws Exception {
+		File serial = new File(td, "serial.zip");
+		File parallel = new File(td, "parallel.zip");
+		ZipUtility.zip(serial, src.listFiles());
+		ZipUtility.zip(parallel, executor, src.listFiles());
+		
+		Map<String, byte[]> expected = read(serial);
+		Assert.assertEquals("all 23 leaves should be zipped", 23, expected.size());
+		assertContentsEqual(expected, read(parallel));
+		
+		// the streaming reader must cope with the parallel archive too
+		ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(Files.toByteArray(parallel)));
+		Map<String, byte[]> streamed = new TreeMap<String, byte[]>();
+		for (ZipEntry ze; null != (ze = zis.getNextEntry()); )
+			streamed.put(ze.getName(), ByteStreams.toByteArray(zis));
+		assertContentsEqual(expected, streamed);
+	}
+	
+	/** the adaptive policy should store incompressible leaves, in either mode, without changing content */
+	@Test
+	public void testCompressionPolicy() throws Exception {
+		File serial = new File(td, "serial.zip");
+		File parallel = new File(td, "parallel.zip");
+		ZipUtility.zip(serial, CompressionPolicy.ADAPTIVE, src.listFiles());
+		ZipUtility.zip(parallel, executor, CompressionPolicy.ADAPTIVE, src.listFiles());
+		
+		File plain = new File(td, "plain.zip");
+		ZipUtility.zip(plain, src.listFiles());
+		Map<String, byte[]> expected = read(plain);
+		assertContentsEqual(expected, read(serial));
+		assertContentsEqual(expected, read(parallel));
+		
+		for (File zip : new File[] {serial, parallel}) {
+			ZipFile zf = new ZipFile(zip); try {
+				Assert.assertEquals("random content should be stored",
+						ZipEntry.STORED, zf.getEntry("random.bin").getMethod());
+				Assert.assertEquals("tiny content should be stored",
+						ZipEntry.STORED, zf.getEntry("empty").getMethod());
+				Assert.assertEquals("text should be deflated",
+						ZipEntry.DEFLATED, zf.getEntry("dir0/sub0/file0.txt").getMethod());
+			} finally {
+				zf.close();
+			}
+		}
+	}
+	
+	/** incremental zip should copy unchanged entries, and yield what a full zip would */
+	@Test
+	public void testIncrementalZip() throws Exception {
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		File work = new File(td, "work");
+		ZipUtility.unzip(zip, work);
+		
+		Files.write("changed", new File(work, "dir1/sub1/file1.txt"), Charsets.UTF_8);
+		Files.write("added", new File(work, "dir1/added.txt"), Charsets.UTF_8);
+		Assert.assertTrue(new File(work, "dir2/sub0/file2.txt").delete());
+		
+		Assert.assertEquals("all but the changed and deleted leaves should be copied",
+				21, ZipUtility.zipIncremental(zip, work.listFiles()));
+		
+		File full = new File(td, "full.zip");
+		ZipUtility.zip(full, work.listFiles());
+		assertContentsEqual(read(full), read(zip));
+		
+		Assert.assertEquals("an unchanged zip should be entirely copied",
+				23, ZipUtility.zipIncremental(zip, work.listFiles()));
+		assertContentsEqual(read(full), read(zip));
+		
+		// however short its name
+		File z = new File(td, "z");
+		Files.copy(zip, z);
+		Assert.assertEquals(23, ZipUtility.zipIncremental(z, work.listFiles()));
+		assertContentsEqual(read(full), read(z));
+	}
+	
+	/** times beyond those a zip header can hold should be clamped to its range (1980 to 2107) */
+	@Test
+	public void testZipTimeRange() throws Exception {
+		File early = new File(src, "early.txt"), late = new File(src, "late.txt");
+		Files.write("early", early, Charsets.UTF_8);
+		Files.write("late", late, Charsets.UTF_8);
+		Assert.assertTrue(early.setLastModified(year(1975)));
+		Assert.assertTrue(late.setLastModified(year(2200)));
+		
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, early, late);
+		ZipFile zf = new ZipFile(zip); try {
+			Assert.assertEquals(year(1980), zf.getEntry("early.txt").getTime());
+			Assert.assertEquals(year(2108) - 2000, zf.getEntry("late.txt").getTime());
+		} finally {
+			zf.close();
+		}
+	}
+	static long year(int year) {
+		return LocalDateTime.of(year, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+	
+	/** the parallel unzip should yield exactly what the serial unzip does, honoring overWrite */
+	@Test
+	public void testParallelUnzip() throws Exception {
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		
+		File serial = new File(td, "serial");
+		File parallel = new File(td, "parallel");
+		for (File dir : new File[] {serial, parallel}) {
+			File keep = new File(dir, "dir0/sub0/file0.txt");
+			keep.getParentFile().mkdirs();
+			Files.write("keep me", keep, Charsets.UTF_8);
+		}
+		FileFilter never = FileFilters.toFileFilter(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return false;
+			}
+		});
+		ZipUtility.unzip(zip, serial, never);
+		ZipUtility.unzip(zip, parallel, never, executor);
+		
+		Map<String, byte[]> expected = list(serial, "");
+		Assert.assertEquals("the collision should have been filtered",
+				"keep me", new String(expected.get("dir0/sub0/file0.txt"), Charsets.UTF_8));
+		assertContentsEqual(expected, list(parallel, ""));
+	}
+	
+	/** a zip with data prepended (e.g. a launcher script) should unzip as the zip alone does */
+	@Test
+	public void testPrefixedUnzip() throws Exception {
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		File prefixed = new File(td, "prefixed.zip");
+		Files.write("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(Charsets.UTF_8), prefixed);
+		Files.asByteSink(prefixed, FileWriteMode.APPEND).write(Files.toByteArray(zip));
+		
+		File plain = new File(td, "plain"), serial = new File(td, "serial"), parallel = new File(td, "parallel");
+		ZipUtility.unzip(zip, plain);
+		ZipUtility.unzip(prefixed, serial);
+		ZipUtility.unzip(prefixed, parallel, executor);
+		Map<String, byte[]> expected = list(plain, "");
+		assertContentsEqual(expected, list(serial, ""));
+		assertContentsEqual(expected, list(parallel, ""));
+	}
+	
+	/**
+	 * the pipelined stream unzip should yield exactly what the serial stream unzip does,
+	 * upon any executor: even a direct one, or the (saturated) one running the caller
+	 */
+	@Test
+	public void testPipelinedUnzip() throws Exception {
+		// larger than all the pipeline's buffers together
+		byte[] big = new byte[5 << 20];
+		new Random(0).nextBytes(big);
+		Files.write(big, new File(src, "big.bin"));
+		final File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		
+		File serial = new File(td, "serial");
+		InputStream is = new FileInputStream(zip); try {
+			ZipUtility.unzip(is, serial);
+		} finally {
+			is.close();
+		}
+		Map<String, byte[]> expected = list(serial, "");
+		Assert.assertEquals("all 24 leaves should be unzipped", 24, expected.size());
+		
+		File pipelined = new File(td, "pipelined");
+		unzip(zip, pipelined, executor);
+		assertContentsEqual(expected, list(pipelined, ""));
+		
+		File direct = new File(td, "direct");
+		unzip(zip, direct, MoreExecutors.newDirectExecutorService());
+		assertContentsEqual(expected, list(direct, ""));
+		
+		final File nested = new File(td, "nested");
+		final ExecutorService single = Executors.newSingleThreadExecutor(); try {
+			single.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					unzip(zip, nested, single);
+					return null;
+				}
+			}).get(60, TimeUnit.SECONDS);
+		} finally {
+			single.shutdown();
+		}
+		assertContentsEqual(expected, list(nested, ""));
+	}
+	static void unzip(File zip, File to, ExecutorService writers) throws IOException {
+		InputStream is = new FileInputStream(zip); try {
+			ZipUtility.unzip(is, to, writers);
+		} finally {
+			is.close();
+		}
+	}
+	
+	/** one engine, shared by concurrent zips and unzips, should reuse its pooled state without cross-talk */
+	@Test
+	public void testZipEngine() throws Exception {
+		final ZipEngine engine = new ZipEngine(Deflater.BEST_SPEED, 1024, 2);
+		try {
+			List<Future<Map<String, byte[]>>> tasks = new ArrayList<Future<Map<String, byte[]>>>();
+			for (int i = 0; i < 8; ++i) {
+				final File zip = new File(td, "engine" + i + ".zip");
+				final File dir = new File(td, "engine" + i);
+				tasks.add(executor.submit(new Callable<Map<String, byte[]>>() {
+					@Override
+					public Map<String, byte[]> call() throws IOException {
+						engine.zip(zip, CompressionPolicy.ADAPTIVE, src.listFiles());
+						engine.unzip(zip, dir, FileFilters.FF_TRUE);
+						return list(dir, "");
+					}
+				}));
+			}
+			Map<String, byte[]> expected = list(src, "");
+			for (Future<Map<String, byte[]>> task : tasks)
+				assertContentsEqual(expected, task.get());
+		} finally {
+			engine.close();
+		}
+	}
+	
+	/** entries read through the index should match the zip, and a re-written zip should be re-indexed */
+	@Test
+	public void testZipIndex() throws Exception {
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		Map<String, byte[]> expected = read(zip);
+		
+		ZipIndex index = new ZipIndex(1000);
+		for (int i = 0; i < 2; ++i)
+			for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+				InputStream is = index.open(zip, e.getKey()); try {
+					Assert.assertArrayEquals("content should match: " + e.getKey(), e.getValue(), ByteStreams.toByteArray(is));
+				} finally {
+					is.close();
+				}
+			}
+		Assert.assertEquals("the central directory should be read once", 1, index.getMisses());
+		Assert.assertEquals(2 * expected.size() - 1, index.getHits());
+		
+		ZipUtility.zip(zip, new File(src, "random.bin"));
+		Assert.assertTrue("the file changed, so should its index", zip.setLastModified(zip.lastModified() - 10000));
+		Assert.assertEquals(1, index.get(zip).size());
+		Assert.assertEquals(2, index.getMisses());
+		Assert.assertNull(index.get(zip, "empty"));
+		
+		// bounded by entries: a second archive evicts the first
+		File other = new File(td, "other.zip");
+		ZipUtility.zip(other, src.listFiles());
+		index = new ZipIndex(20);
+		index.get(zip);
+		index.get(other);
+		Assert.assertEquals("the least recently used should be evicted", 1, index.size());
+	}
+	
+	/** identical leaves should be compressed once, within a zip and across zips sharing the cache */
+	@Test
+	public void testDedupZip() throws Exception {
+		File dup = new File(src, "dup");
+		dup.mkdirs();
+		for (int i = 0; i < 5; ++i)
+			Files.copy(new File(src, "dir" + (i % 3) + "/sub" + (i % 2) + "/file" + i + ".txt"), new File(dup, "copy" + i + ".txt"));
+		
+		File plain = new File(td, "plain.zip");
+		ZipUtility.zip(plain, CompressionPolicy.ADAPTIVE, src.listFiles());
+		Map<String, byte[]> expected = read(plain);
+		
+		DedupCache dedup = new DedupCache();
+		File first = new File(td, "first.zip");
+		DedupCache.Report report = ZipUtility.zip(first, executor, CompressionPolicy.ADAPTIVE, dedup, src.listFiles());
+		assertContentsEqual(expected, read(first));
+		Assert.assertEquals("all but the large leaf should be considered", 27, report.getLeaves());
+		Assert.assertEquals("the copies should be duplicates", 5, report.getDuplicates());
+		Assert.assertTrue(report.getBytesSaved() > 0);
+		
+		File second = new File(td, "second.zip");
+		report = ZipUtility.zip(second, executor, CompressionPolicy.ADAPTIVE, dedup, src.listFiles());
+		assertContentsEqual(expected, read(second));
+		Assert.assertEquals("a repeated zip should be entirely duplicates", 27, report.getDuplicates());
+		Assert.assertEquals(32, dedup.TOTAL.getDuplicates());
+	}
+	
+	/** a diff should find exactly the changes made, hashing only where size and time can't tell */
+	@Test
+	public void testTreeDiff() throws Exception {
+		File zip = new File(td, "test.zip");
+		ZipUtility.zip(zip, src.listFiles());
+		final Map<String, TreeDiff.Kind> diffs = new TreeMap<String, TreeDiff.Kind>();
+		TreeDiff.Listener listener = new TreeDiff.Listener() {
+			@Override
+			public void diff(TreeDiff.Kind kind, String name) {
+				diffs.put(name, kind);
+			}
+		};
+		
+		TreeDiff.Result result = TreeDiff.diff(src, zip, executor, listener);
+		Assert.assertTrue("a fresh zip should match its directory: " + diffs, result.isEmpty());
+		Assert.assertEquals(23, result.getUnchanged());
+		Assert.assertEquals("size and time should suffice", 0, result.getHashed());
+		
+		// unzipped times are truncated to the zip's precision, so differ, but the content doesn't
+		File copy = new File(td, "copy");
+		ZipUtility.unzip(zip, copy);
+		result = TreeDiff.diff(src, copy, executor, listener);
+		Assert.assertTrue(diffs.toString(), result.isEmpty());
+		
+		File changed = new File(src, "dir0/sub0/file0.txt");
+		byte[] content = Files.toByteArray(changed);
+		content[0] ^= 1;
+		Files.write(content, changed);
+		// as a later edit would be, beyond the zip's 2 second precision
+		Assert.assertTrue(changed.setLastModified(changed.lastModified() + 10000));
+		File touched = new File(src, "random.bin");
+		Assert.assertTrue(touched.setLastModified(touched.lastModified() - 10000));
+		Assert.assertTrue(new File(src, "empty").delete());
+		Files.write(new byte[10], new File(src, "dir1/new"));
+		
+		diffs.clear();
+		result = TreeDiff.diff(zip, src, executor, listener);
+		Map<String, TreeDiff.Kind> expected = new TreeMap<String, TreeDiff.Kind>();
+		expected.put("dir0/sub0/file0.txt", TreeDiff.Kind.CHANGED);
+		expected.put("empty", TreeDiff.Kind.REMOVED);
+		expected.put("dir1/new", TreeDiff.Kind.ADDED);
+		Assert.assertEquals(expected, diffs);
+		Assert.assertEquals("only the changed and touched leaves should be hashed", 2, result.getHashed());
+		Assert.assertEquals(21, result.getUnchanged());
+	}
+	
+	static Map<String, byte[]> list(File dir, String prefix) throws IOException {
+		Map<String, byte[]> retVal = new TreeMap<String, byte[]>();
+		for (File f : dir.listFiles())
+			if (f.isDirectory())
+				retVal.putAll(list(f, prefix + f.getName() + "/"));
+			else
+				retVal.put(prefix + f.getName(), Files.toByteArray(f));
+		return retVal;
+	}
+	static Map<String, byte[]> read(File zip) throws IOException {
+		Map<String, byte[]> retVal = new TreeMap<String, byte[]>();
+		ZipFile zf = new ZipFile(zip); try {
+			for (Enumeration<? extends ZipEntry> e = zf.entries(); e.hasMoreElements(); ) {
+				ZipEntry ze = e.nextElement();
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				ByteStreams.copy(zf.getInputStream(ze), baos);
+				retVal.put(ze.getName(), baos.toByteArray());
+			}
+		} finally {
+			zf.close();
+		}
+		return retVal;
+	}
+	static void assertContentsEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+		Assert.assertEquals("entry names should match", expected.keySet(), actual.keySet());
+		for (Map.Entry<String, byte[]> e : expected.entrySet())
+			Assert.assertArrayEquals("content should match: " + e.getKey(), e.getValue(), actual.get(e.getKey()));
+	}
+}
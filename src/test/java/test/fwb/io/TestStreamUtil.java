@@ -0,0 +1,204 @@
+package test.fwb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+
+import org.fwb.file.FileUtil;
+import org.fwb.file.dir.DirectoryUtility;
+import org.fwb.file.dir.TempDirectory;
+import org.fwb.file.zip.ZipUtility;
+import org.fwb.io.Metrics;
+import org.fwb.io.Metrics.Operation;
+import org.fwb.io.StreamUtil;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestStreamUtil {
+	static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+	
+	/**
+	 * a segmented download should match a single stream, survive a dropped segment, and fall back without ranges
+	 * (or without a validator); and fail, rather than mix versions, should the content change meanwhile
+	 */
+	@Test
+	public void testSegmentedCopy() throws Exception {
+		final byte[] content = new byte[(int) (3 * StreamUtil.SEGMENT_MIN) + 12345];
+		new Random(0).nextBytes(content);
+		Ranged ranged = new Ranged(content, "\"v1\"", "\"v1\"", true),
+				changing = new Ranged(content, "\"v1\"", "\"v2\"", false),
+				unvalidated = new Ranged(content, null, null, false);
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/ranged", ranged);
+		server.createContext("/changing", changing);
+		server.createContext("/unvalidated", unvalidated);
+		server.createContext("/plain", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange x) throws IOException {
+				send(x, 200, content, 0, content.length);
+			}
+		});
+		server.start();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		TempDirectory td = new TempDirectory(); try {
+			String base = "http://localhost:" + server.getAddress().getPort();
+			File to = new File(td, "to");
+			
+			assertEquals(content.length, StreamUtil.copy(new URL(base + "/ranged"), to, 8, executor));
+			assertArrayEquals(content, Files.toByteArray(to));
+			assertTrue("a segment should have been dropped (and retried)", ranged.DROPPED.get());
+			assertEquals("the probe, 3 segments and a retry", 5, ranged.RANGES.get());
+			
+			assertEquals(content.length, FileUtil.copy(new URL(base + "/plain"), to, executor).BYTES);
+			assertArrayEquals(content, Files.toByteArray(to));
+			
+			ranged.RANGES.set(0);
+			assertEquals("a single stream", content.length, StreamUtil.copy(new URL(base + "/ranged"), to, 1, executor));
+			assertArrayEquals(content, Files.toByteArray(to));
+			assertEquals(0, ranged.RANGES.get());
+			
+			assertEquals("a single stream", content.length, StreamUtil.copy(new URL(base + "/unvalidated"), to, 8, executor));
+			assertArrayEquals(content, Files.toByteArray(to));
+			assertEquals("only the probe", 1, unvalidated.RANGES.get());
+			
+			try {
+				StreamUtil.copy(new URL(base + "/changing"), to, 8, executor);
+				fail("content changed during the download");
+			} catch (IOException e) {
+				assertTrue(e.toString(), e.getMessage().contains("changed"));
+			}
+		} finally {
+			td.close();
+			executor.shutdown();
+			server.stop(0);
+		}
+	}
+	static void send(HttpExchange x, int code, byte[] content, int from, int to) throws IOException {
+		x.sendResponseHeaders(code, to - from);
+		OutputStream os = x.getResponseBody(); try {
+			os.write(content, from, to - from);
+		} finally {
+			os.close();
+		}
+	}
+	
+	/**
+	 * serves byte ranges, honoring If-Range, with one ETag for the first request (the probe) and another thereafter;
+	 * and optionally drops the connection half way through the first segment after the probe
+	 */
+	static class Ranged implements HttpHandler {
+		final byte[] CONTENT;
+		final String FIRST, LATER;
+		final boolean DROP;
+		final AtomicInteger REQUESTS = new AtomicInteger(), RANGES = new AtomicInteger();
+		final AtomicBoolean DROPPED = new AtomicBoolean();
+		Ranged(byte[] content, String first, String later, boolean drop) {
+			CONTENT = content;
+			FIRST = first;
+			LATER = later;
+			DROP = drop;
+		}
+		
+		@Override
+		public void handle(HttpExchange x) throws IOException {
+			String etag = 0 == REQUESTS.getAndIncrement() ? FIRST : LATER;
+			if (null != etag)
+				x.getResponseHeaders().set("ETag", etag);
+			String range = x.getRequestHeaders().getFirst("Range"), ifRange = x.getRequestHeaders().getFirst("If-Range");
+			Matcher m = null == range ? null : RANGE.matcher(range);
+			if (null == m || ! m.matches() || (null != ifRange && ! ifRange.equals(etag))) {
+				send(x, 200, CONTENT, 0, CONTENT.length);
+				return;
+			}
+			RANGES.incrementAndGet();
+			int from = Integer.parseInt(m.group(1)), to = Integer.parseInt(m.group(2)) + 1;
+			x.getResponseHeaders().set("Content-Range", String.format("bytes %s-%s/%s", from, to - 1, CONTENT.length));
+			if (DROP && from > 0 && DROPPED.compareAndSet(false, true)) {
+				x.sendResponseHeaders(206, to - from);
+				OutputStream os = x.getResponseBody();
+				os.write(CONTENT, from, (to - from) / 2);
+				os.flush();
+				x.close();
+				return;
+			}
+			send(x, 206, CONTENT, from, to);
+		}
+	}
+	
+	/** each operation should be measured once, and published over JMX, while enabled */
+	@Test
+	public void testMetrics() throws Exception {
+		Metrics.Statistics statistics = Metrics.statistics();
+		Metrics.registerMBeans();
+		TempDirectory td = new TempDirectory(); try {
+			assertTrue(Metrics.isEnabled());
+			File dir = new File(td, "dir");
+			dir.mkdir();
+			byte[] content = new byte[100000];
+			for (int i = 0; i < 10; ++i)
+				Files.write(content, new File(dir, "f" + i));
+			Metrics.Stats zip = statistics.get(Operation.ZIP), unzip = statistics.get(Operation.UNZIP),
+					copy = statistics.get(Operation.COPY), delete = statistics.get(Operation.DELETE);
+			long zips = zip.getCount(), unzips = unzip.getCount(), copies = copy.getCount(), deletes = delete.getItems();
+			
+			File zipped = new File(td, "zipped.zip");
+			ZipUtility.zip(zipped, dir.listFiles());
+			assertEquals(zips + 10, zip.getCount());
+			assertTrue("zeros should compress: " + zip.getCompressionRatio(), zip.getCompressionRatio() < 0.1);
+			ZipUtility.unzip(zipped, new File(td, "unzipped"));
+			assertEquals(unzips + 10, unzip.getCount());
+			assertTrue(unzip.getBytesOut() >= 10 * content.length);
+			FileUtil.copy(new File(dir, "f0"), new File(td, "copied"));
+			assertEquals(copies + 1, copy.getCount());
+			
+			ForkJoinPool pool = new ForkJoinPool(2); try {
+				DirectoryUtility.deleteDirectory(new File(td, "unzipped"), pool);
+			} finally {
+				pool.shutdown();
+			}
+			assertEquals("10 files and the directory", deletes + 11, delete.getItems());
+			
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(zip.getCount(), server.getAttribute(Metrics.name(Operation.ZIP), "Count"));
+			assertTrue(zip.getLatency99Micros() >= zip.getLatencyMedianMicros());
+		} finally {
+			td.close();
+			Metrics.removeListener(statistics);
+		}
+		
+		// removed, the aggregate (and its MBeans) should be discarded, not left dead
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertFalse(server.isRegistered(Metrics.name(Operation.ZIP)));
+		Metrics.Statistics again = Metrics.statistics(); try {
+			assertNotSame(statistics, again);
+			assertTrue(Metrics.isEnabled());
+		} finally {
+			Metrics.removeListener(again);
+		}
+	}
+}